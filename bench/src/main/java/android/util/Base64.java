@@ -0,0 +1,43 @@
+package android.util;
+
+import java.nio.charset.Charset;
+
+// Stub of the Android class, on top of java.util.Base64
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+
+    private static final byte[] LF = "\n".getBytes(Charset.forName("US-ASCII"));
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder;
+        if ((flags & URL_SAFE) != 0) {
+            encoder = java.util.Base64.getUrlEncoder();
+        } else if ((flags & NO_WRAP) != 0) {
+            encoder = java.util.Base64.getEncoder();
+        } else {
+            encoder = java.util.Base64.getMimeEncoder(76, LF);
+        }
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        String encoded = encoder.encodeToString(input);
+        // like Android, the wrapped output ends with a line feed
+        return (flags & NO_WRAP) != 0 || encoded.isEmpty() ? encoded : encoded + "\n";
+    }
+
+    public static byte[] decode(String str, int flags) {
+        if ((flags & URL_SAFE) != 0) {
+            return java.util.Base64.getUrlDecoder().decode(str.trim());
+        }
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+
+}
@@ -0,0 +1,100 @@
+package net.becvert.cordova.bench;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Loopback client, releases a permit per message received. Once expect() is
+// called, the messages are checked against the expected payloads, in order.
+public class BenchClient extends WebSocketClient {
+
+    private final Semaphore received;
+
+    // String or byte[], message i is payloads[i % payloads.length]
+    private volatile Object[] payloads;
+
+    // only used by the read thread of the client
+    private int next = 0;
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    private volatile String firstError;
+
+    public BenchClient(int port, Semaphore received) throws URISyntaxException {
+        super(new URI("ws://127.0.0.1:" + port + "/"));
+        this.received = received;
+        setTcpNoDelay(true);
+    }
+
+    // before the messages are sent
+    public void expect(Object... payloads) {
+        this.next = 0;
+        this.payloads = payloads;
+    }
+
+    public int getErrors() {
+        return errors.get();
+    }
+
+    public String getFirstError() {
+        return firstError;
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+    }
+
+    @Override
+    public void onMessage(String message) {
+        Object[] expected = payloads;
+        if (expected != null) {
+            Object payload = expected[next % expected.length];
+            if (!message.equals(payload)) {
+                error("text message " + next + ": " + message.length() + " chars, expected " + describe(payload));
+            }
+            next++;
+        }
+        received.release();
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        Object[] expected = payloads;
+        if (expected != null) {
+            Object payload = expected[next % expected.length];
+            if (!(payload instanceof byte[]) || !bytes.equals(ByteBuffer.wrap((byte[]) payload))) {
+                error("binary message " + next + ": " + bytes.remaining() + " bytes, expected " + describe(payload));
+            }
+            next++;
+        }
+        received.release();
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        ex.printStackTrace();
+    }
+
+    private void error(String error) {
+        if (errors.getAndIncrement() == 0) {
+            firstError = error;
+        }
+    }
+
+    private static String describe(Object payload) {
+        if (payload instanceof byte[]) {
+            return ((byte[]) payload).length + " bytes";
+        }
+        return ((String) payload).length() + " chars of text";
+    }
+
+}
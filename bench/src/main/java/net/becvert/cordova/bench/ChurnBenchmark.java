@@ -0,0 +1,60 @@
+package net.becvert.cordova.bench;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// a client connects and disconnects: time until the WebView got both onOpen and onClose
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChurnBenchmark {
+
+    @Param({ "uuid", "compact" })
+    public String connectionIds;
+
+    private PluginHarness harness;
+
+    private int port;
+
+    private final Semaphore received = new Semaphore(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        harness = new PluginHarness();
+        port = harness.start(new JSONObject().put("connectionIds", connectionIds));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        harness.stop();
+    }
+
+    @Benchmark
+    public void openClose() throws Exception {
+        BenchClient client = new BenchClient(port, received);
+        client.connectBlocking();
+        harness.opened.acquire();
+        client.closeBlocking();
+        harness.closed.acquire();
+        harness.uuids.clear();
+    }
+
+}
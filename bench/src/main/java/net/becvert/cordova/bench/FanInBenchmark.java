@@ -0,0 +1,85 @@
+package net.becvert.cordova.bench;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// many clients -> server -> WebView: messages per second delivered to the WebView,
+// depending on the number of decoder threads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanInBenchmark {
+
+    private static final int MESSAGES = 200;
+
+    private static final int CLIENTS = 8;
+
+    @Param({ "1", "4" })
+    int decoders;
+
+    @Param({ "4096" })
+    int size;
+
+    private PluginHarness harness;
+
+    private BenchClient[] connections;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        text = Payloads.text(size);
+
+        JSONObject options = new JSONObject();
+        options.put("tcpNoDelay", true);
+        options.put("decoders", decoders);
+        harness = new PluginHarness();
+        int port = harness.start(options);
+
+        connections = new BenchClient[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            connections[i] = new BenchClient(port, new Semaphore(0));
+            connections[i].connectBlocking();
+        }
+        harness.opened.acquire(CLIENTS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (BenchClient client : connections) {
+            client.closeBlocking();
+        }
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES * CLIENTS)
+    public void text() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            for (BenchClient client : connections) {
+                client.send(text);
+            }
+        }
+        harness.messages.acquire(MESSAGES * CLIENTS);
+    }
+
+}
@@ -0,0 +1,131 @@
+package net.becvert.cordova.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// WebView -> server -> many clients: messages per second, each received by every client
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+
+    private static final int MESSAGES = 100;
+
+    private static final String TOPIC = "bench";
+
+    @Param({ "10", "100" })
+    int clients;
+
+    @Param({ "256" })
+    int size;
+
+    private PluginHarness harness;
+
+    private BenchClient[] connections;
+
+    private final Semaphore received = new Semaphore(0);
+
+    private String text;
+
+    private JSONArray uuids;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        text = Payloads.text(size);
+
+        JSONObject options = new JSONObject();
+        options.put("tcpNoDelay", true);
+        harness = new PluginHarness();
+        int port = harness.start(options);
+
+        connections = new BenchClient[clients];
+        for (int i = 0; i < clients; i++) {
+            connections[i] = new BenchClient(port, received);
+            connections[i].expect(text);
+            connections[i].connectBlocking();
+        }
+        harness.opened.acquire(clients);
+        uuids = new JSONArray(harness.uuids);
+        for (int i = 0; i < uuids.length(); i++) {
+            harness.exec("subscribe", new JSONArray().put(uuids.get(i)).put(TOPIC));
+        }
+    }
+
+    // every client received the text, and only it
+    @TearDown(Level.Iteration)
+    public void verify() {
+        for (BenchClient client : connections) {
+            if (client.getErrors() > 0) {
+                throw new IllegalStateException(client.getErrors() + " bad messages, first: " + client.getFirstError());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (BenchClient client : connections) {
+            client.closeBlocking();
+        }
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void broadcast() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            harness.exec("broadcast", new JSONArray().put(text));
+        }
+        received.acquire(MESSAGES * clients);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void sendToMany() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            harness.exec("sendToMany", new JSONArray().put(uuids).put(text));
+        }
+        received.acquire(MESSAGES * clients);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void publish() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            harness.exec("publish", new JSONArray().put(TOPIC).put(text));
+        }
+        received.acquire(MESSAGES * clients);
+    }
+
+    // one send() per client, the baseline of the two above
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void sendEach() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            for (int j = 0; j < uuids.length(); j++) {
+                harness.exec("send", new JSONArray().put(uuids.opt(j)).put(text));
+            }
+        }
+        received.acquire(MESSAGES * clients);
+    }
+
+}
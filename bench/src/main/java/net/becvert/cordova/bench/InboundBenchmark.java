@@ -0,0 +1,89 @@
+package net.becvert.cordova.bench;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// client -> server -> WebView: messages per second delivered to the WebView
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InboundBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    @Param({ "64", "4096" })
+    int size;
+
+    @Param({ "false", "true" })
+    boolean batching;
+
+    private PluginHarness harness;
+
+    private BenchClient client;
+
+    private String text;
+
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        text = Payloads.text(size);
+        binary = Payloads.binary(size);
+
+        JSONObject options = new JSONObject();
+        options.put("tcpNoDelay", true);
+        if (batching) {
+            options.put("batching", new JSONObject());
+        }
+        harness = new PluginHarness();
+        int port = harness.start(options);
+
+        client = new BenchClient(port, new Semaphore(0));
+        client.connectBlocking();
+        harness.opened.acquire();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.closeBlocking();
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void text() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            client.send(text);
+        }
+        harness.messages.acquire(MESSAGES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void binary() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            client.send(binary);
+        }
+        harness.messages.acquire(MESSAGES);
+    }
+
+}
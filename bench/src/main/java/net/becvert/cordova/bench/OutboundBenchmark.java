@@ -0,0 +1,89 @@
+package net.becvert.cordova.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// WebView -> server -> client: send() calls per second received by the client
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutboundBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    @Param({ "64", "4096" })
+    int size;
+
+    private PluginHarness harness;
+
+    private BenchClient client;
+
+    private final Semaphore received = new Semaphore(0);
+
+    private String uuid;
+
+    private String text;
+
+    private String base64;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        text = Payloads.text(size);
+        base64 = Payloads.base64(size);
+
+        JSONObject options = new JSONObject();
+        options.put("tcpNoDelay", true);
+        harness = new PluginHarness();
+        int port = harness.start(options);
+
+        client = new BenchClient(port, received);
+        client.connectBlocking();
+        harness.opened.acquire();
+        uuid = harness.uuids.get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.closeBlocking();
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void send() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            harness.exec("send", new JSONArray().put(uuid).put(text));
+        }
+        received.acquire(MESSAGES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void sendBinary() throws InterruptedException {
+        for (int i = 0; i < MESSAGES; i++) {
+            harness.exec("send_binary", new JSONArray().put(uuid).put(base64));
+        }
+        received.acquire(MESSAGES);
+    }
+
+}
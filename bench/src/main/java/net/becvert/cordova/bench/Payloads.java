@@ -0,0 +1,35 @@
+package net.becvert.cordova.bench;
+
+import android.util.Base64;
+
+import java.util.Random;
+
+public final class Payloads {
+
+    private Payloads() {
+    }
+
+    // JSON-like ASCII text
+    public static String text(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        sb.append("{\"data\":\"");
+        while (sb.length() < size - 2) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        sb.append("\"}");
+        return sb.substring(0, Math.min(sb.length(), size));
+    }
+
+    // random, so it doesn't compress
+    public static byte[] binary(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    // as received by the plugin from the WebView for an ArrayBuffer argument
+    public static String base64(int size) {
+        return Base64.encodeToString(binary(size), Base64.NO_WRAP);
+    }
+
+}
@@ -0,0 +1,186 @@
+package net.becvert.cordova.bench;
+
+import net.becvert.cordova.WebSocketServerPlugin;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Runs the plugin as Cordova does and counts the events it delivers to the WebView.
+public class PluginHarness implements CordovaWebView {
+
+    private static final String START = "start";
+
+    private static final String STOP = "stop";
+
+    public final Semaphore opened = new Semaphore(0);
+
+    public final Semaphore messages = new Semaphore(0);
+
+    public final Semaphore closed = new Semaphore(0);
+
+    public final List<String> uuids = new CopyOnWriteArrayList<String>();
+
+    private final WebSocketServerPlugin plugin = new WebSocketServerPlugin();
+
+    private final ExecutorService threadPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "cordova-thread-pool");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile int port = -1;
+
+    private volatile String error;
+
+    public PluginHarness() {
+        CordovaInterface cordova = new CordovaInterface() {
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        };
+        plugin.privateInitialize(cordova, this);
+        plugin.initialize(cordova, this);
+    }
+
+    // options as given to wsserver.start(), returns the listening port
+    public int start(JSONObject options) throws JSONException, InterruptedException {
+        JSONArray args = new JSONArray();
+        args.put(0);
+        args.put(options.opt("origins"));
+        args.put(options.opt("protocols"));
+        args.put(options.opt("tcpNoDelay"));
+        args.put(options.opt("batching"));
+        args.put(options.opt("binaryTransport"));
+        args.put(options.opt("backpressure"));
+        args.put(options.opt("compression"));
+        args.put(options.opt("decoders"));
+        args.put(options.opt("receiveBufferSize"));
+        args.put(options.opt("sendBufferSize"));
+        args.put(options.opt("reuseAddr"));
+        args.put(options.opt("name"));
+        args.put(options.opt("clientSubscriptions"));
+        args.put(options.opt("heartbeat"));
+        args.put(options.opt("admission"));
+        args.put(options.opt("auth"));
+        args.put(options.opt("httpFields"));
+        args.put(options.opt("connectionIds"));
+        args.put(options.opt("pauseBuffering"));
+        args.put(options.opt("rules"));
+        args.put(options.opt("streaming"));
+        args.put(options.opt("sessions"));
+        args.put(options.opt("tls"));
+
+        plugin.execute("start", args, new CallbackContext(START, this));
+        if (!started.await(10, TimeUnit.SECONDS) || port < 0) {
+            throw new IllegalStateException("Server did not start: " + error);
+        }
+        return port;
+    }
+
+    public void stop() throws InterruptedException {
+        plugin.execute("stop", new JSONArray(), new CallbackContext(STOP, this));
+        stopped.await(10, TimeUnit.SECONDS);
+        plugin.onDestroy();
+        threadPool.shutdownNow();
+    }
+
+    // same path as cordova.exec() from the WebView
+    public void exec(String action, JSONArray args) {
+        plugin.execute(action, args, new CallbackContext(action, this));
+    }
+
+    @Override
+    public void sendPluginResult(PluginResult result, String callbackId) {
+        if (result.getStatus() != PluginResult.Status.OK.ordinal()) {
+            error = result.getMessage();
+            started.countDown();
+            stopped.countDown();
+            return;
+        }
+        if (STOP.equals(callbackId)) {
+            stopped.countDown();
+            return;
+        }
+        if (!START.equals(callbackId)) {
+            return;
+        }
+
+        // binary events are multipart, the event itself is the first part
+        String event = result.getMessageType() == PluginResult.MESSAGE_TYPE_MULTIPART
+                ? result.getMultipartMessage(0).getMessage()
+                : result.getMessage();
+
+        int count = occurrences(event, "\"action\":\"onMessage\"");
+        if (count > 0) {
+            messages.release(count);
+        }
+        count = occurrences(event, "\"action\":\"onOpen\"");
+        if (count > 0) {
+            collectUuids(event);
+            opened.release(count);
+        }
+        count = occurrences(event, "\"action\":\"onClose\"");
+        if (count > 0) {
+            closed.release(count);
+        }
+        if (event.contains("\"port\":")) {
+            try {
+                port = new JSONObject(event).getInt("port");
+            } catch (JSONException e) {
+                error = e.getMessage();
+            }
+            started.countDown();
+        }
+    }
+
+    private void collectUuids(String event) {
+        try {
+            JSONObject json = new JSONObject(event);
+            JSONArray events = json.optJSONArray("events");
+            if (events == null) {
+                events = new JSONArray().put(json);
+            }
+            for (int i = 0; i < events.length(); i++) {
+                JSONObject conn = events.getJSONObject(i).optJSONObject("conn");
+                if (conn != null) {
+                    uuids.add(conn.getString("uuid"));
+                }
+            }
+        } catch (JSONException e) {
+            error = e.getMessage();
+        }
+    }
+
+    private static int occurrences(String s, String token) {
+        int count = 0;
+        int index = s.indexOf(token);
+        while (index != -1) {
+            count++;
+            index = s.indexOf(token, index + token.length());
+        }
+        return count;
+    }
+
+}
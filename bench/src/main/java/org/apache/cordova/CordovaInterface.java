@@ -0,0 +1,10 @@
+package org.apache.cordova;
+
+import java.util.concurrent.ExecutorService;
+
+// Stub of the Cordova interface, limited to what the plugin uses
+public interface CordovaInterface {
+
+    ExecutorService getThreadPool();
+
+}
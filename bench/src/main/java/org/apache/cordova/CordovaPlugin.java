@@ -0,0 +1,37 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+// Stub of the Cordova class, limited to what the plugin uses
+public class CordovaPlugin {
+
+    public CordovaWebView webView;
+
+    public CordovaInterface cordova;
+
+    public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+    }
+
+    public final void privateInitialize(CordovaInterface cordova, CordovaWebView webView) {
+        this.cordova = cordova;
+        this.webView = webView;
+    }
+
+    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        return false;
+    }
+
+    public void onPause(boolean multitasking) {
+    }
+
+    public void onResume(boolean multitasking) {
+    }
+
+    public void onReset() {
+    }
+
+    public void onDestroy() {
+    }
+
+}
@@ -0,0 +1,8 @@
+package org.apache.cordova;
+
+// Stub of the Cordova interface, limited to what the benchmarks use
+public interface CordovaWebView {
+
+    void sendPluginResult(PluginResult cr, String callbackId);
+
+}
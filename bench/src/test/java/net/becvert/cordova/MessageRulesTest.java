@@ -0,0 +1,161 @@
+package net.becvert.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The messages are written by hand, the way the clients encode them: the
+// JSONObject of Android escapes '/', which the clients don't.
+public class MessageRulesTest {
+
+    @Test
+    public void exact() throws Exception {
+        MessageRules rules = rules(new JSONObject().put("exact", "a/b").put("action", "drop"));
+
+        assertMatches(rules, "a/b");
+        assertNoMatch(rules, "a/b ");
+        assertNoMatch(rules, "a/");
+    }
+
+    @Test
+    public void prefix() throws Exception {
+        MessageRules rules = rules(new JSONObject().put("prefix", "/x/").put("action", "drop"));
+
+        assertMatches(rules, "/x/");
+        assertMatches(rules, "/x/y");
+        assertNoMatch(rules, " /x/y");
+        assertNoMatch(rules, "/x");
+    }
+
+    @Test
+    public void fieldWithSlashes() throws Exception {
+        MessageRules rules = rules(field("a/b", "/x/y"));
+
+        assertMatches(rules, "{\"a/b\":\"/x/y\"}");
+        assertMatches(rules, "{\"a/b\" : \"/x/y\"}");
+        assertNoMatch(rules, "{\"a/b\":\"/x/y/z\"}");
+        assertNoMatch(rules, "{\"a/bc\":\"/x/y\"}");
+    }
+
+    @Test
+    public void fieldWithEscapedQuotes() throws Exception {
+        MessageRules rules = rules(field("say \"hi\"", "a \\ \"b\""));
+
+        assertMatches(rules, "{\"say \\\"hi\\\"\":\"a \\\\ \\\"b\\\"\"}");
+        assertNoMatch(rules, "{\"say \\\"hi\\\"\":\"a \\\\ \\\"b\\\" c\"}");
+        assertNoMatch(rules, "{\"say \\\"hi\\\"\":\"a \\\\ \"}");
+    }
+
+    @Test
+    public void nestedField() throws Exception {
+        MessageRules rules = rules(field("type", "ping"));
+
+        assertMatches(rules, "{\"id\":1,\"body\":{\"meta\":{\"type\":\"ping\"}}}");
+        assertMatches(rules, "[{\"type\":\"pong\"},{\"type\":\"ping\"}]");
+        // the name as a value, followed by the value of another field
+        assertNoMatch(rules, "{\"kind\":\"type\",\"other\":\"ping\"}");
+        assertNoMatch(rules, "{\"type\":\"pings\"}");
+    }
+
+    @Test
+    public void nonStringValues() throws Exception {
+        MessageRules rules = rules(field("n", 1));
+
+        assertMatches(rules, "{\"n\":1,\"m\":2}");
+        assertMatches(rules, "{\"n\":1}");
+        assertMatches(rules, "[{\"n\":1}]");
+        assertMatches(rules, "{\"a\":[{\"n\":1}]}");
+        assertMatches(rules, "{\"n\":1 }");
+        assertMatches(rules, "{\"n\":1\t}");
+        assertMatches(rules, "{\"n\":1\r\n}");
+        assertMatches(rules, "{\"n\":1\n}");
+        assertMatches(rules, "\"n\":1");
+        assertNoMatch(rules, "{\"n\":10}");
+        assertNoMatch(rules, "{\"n\":1.5}");
+        assertNoMatch(rules, "{\"n\":\"1\"}");
+
+        MessageRules flags = rules(field("on", true));
+
+        assertMatches(flags, "{\"on\":true}");
+        assertNoMatch(flags, "{\"on\":trueish}");
+        assertNoMatch(flags, "{\"on\":false}");
+    }
+
+    @Test
+    public void firstMatchingRule() throws Exception {
+        MessageRules rules = MessageRules.parse(new JSONArray()
+                .put(new JSONObject().put("id", "ping").put("exact", "ping").put("action", "reply").put("reply", "pong"))
+                .put(new JSONObject().put("id", "all").put("prefix", "").put("action", "drop")));
+
+        assertEquals("ping", rules.match("ping").id);
+        assertEquals("pong", rules.match("ping").reply);
+        assertEquals("all", rules.match("other").id);
+    }
+
+    @Test
+    public void sampling() throws Exception {
+        MessageRules rules = rules(new JSONObject().put("prefix", "tick").put("action", "sample").put("every", 3));
+
+        MessageRules.Rule rule = rules.match("tick");
+        boolean[] delivered = new boolean[7];
+        for (int i = 0; i < delivered.length; i++) {
+            delivered[i] = rule.hit();
+        }
+        assertTrue(delivered[0]);
+        assertFalse(delivered[1]);
+        assertFalse(delivered[2]);
+        assertTrue(delivered[3]);
+        assertFalse(delivered[4]);
+        assertFalse(delivered[5]);
+        assertTrue(delivered[6]);
+        assertEquals(7, rules.toJSON().getJSONObject(0).getLong("hits"));
+    }
+
+    @Test
+    public void dropIsNeverDelivered() throws Exception {
+        MessageRules rules = rules(new JSONObject().put("exact", "x").put("action", "drop").put("every", 2));
+
+        assertFalse(rules.match("x").hit());
+        assertFalse(rules.match("x").hit());
+    }
+
+    @Test
+    public void invalidRules() throws Exception {
+        assertInvalid(new JSONObject().put("action", "drop"));
+        assertInvalid(new JSONObject().put("field", "type").put("action", "drop"));
+        assertInvalid(new JSONObject().put("exact", "ping").put("action", "reply"));
+        assertInvalid(new JSONObject().put("exact", "ping").put("action", "ignore"));
+    }
+
+    private static JSONObject field(String field, Object value) throws Exception {
+        return new JSONObject().put("field", field).put("value", value).put("action", "drop");
+    }
+
+    private static MessageRules rules(JSONObject rule) throws Exception {
+        return MessageRules.parse(new JSONArray().put(rule));
+    }
+
+    private static void assertMatches(MessageRules rules, String msg) {
+        assertTrue(msg, rules.match(msg) != null);
+    }
+
+    private static void assertNoMatch(MessageRules rules, String msg) {
+        assertNull(msg, rules.match(msg));
+    }
+
+    private static void assertInvalid(JSONObject rule) throws Exception {
+        try {
+            rules(rule);
+            fail("accepted " + rule);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
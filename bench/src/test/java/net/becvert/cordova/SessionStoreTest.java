@@ -0,0 +1,195 @@
+package net.becvert.cordova;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SessionStoreTest {
+
+    private final SessionStore store = new SessionStore(10, 3, 1000, 60000, null, null);
+
+    @Test
+    public void noSessionToken() {
+        assertNull(store.open("/", connection()));
+        assertNull(store.open("/?session=", connection()));
+        assertNull(store.open("/?other=abc", connection()));
+    }
+
+    @Test
+    public void resume() throws Exception {
+        Connection first = connection();
+        SessionStore.Resumption started = store.open("/?session=abc", first);
+        assertNull(started.messages);
+        assertEquals(0, started.seq);
+        record(started.session, first, "m1", "m2", "m3");
+        started.session.detach(first);
+
+        Connection second = connection();
+        SessionStore.Resumption resumed = store.open("/?session=abc&lastSeq=1", second);
+        assertSame(started.session, resumed.session);
+        assertEquals(Arrays.<Object>asList("m2", "m3"), resumed.messages);
+        assertEquals(3, resumed.seq);
+        assertNull(resumed.previous);
+
+        // numbered after the replayed messages
+        record(resumed.session, second, "m4");
+        resumed.session.detach(second);
+        assertEquals(Arrays.<Object>asList("m4"), store.open("/?session=abc&lastSeq=3", connection()).messages);
+
+        JSONObject stats = store.toJSON();
+        assertEquals(2, stats.getLong("resumed"));
+        assertEquals(1, stats.getLong("restarted"));
+        assertEquals(3, stats.getLong("replayed"));
+    }
+
+    @Test
+    public void nothingMissed() {
+        Connection first = connection();
+        SessionStore.Resumption started = store.open("/?session=abc", first);
+        record(started.session, first, "m1", "m2");
+
+        SessionStore.Resumption resumed = store.open("/?session=abc&lastSeq=2", connection());
+        assertEquals(Collections.emptyList(), resumed.messages);
+        assertEquals(2, resumed.seq);
+        // still attached: closed by the server
+        assertSame(first, resumed.previous);
+    }
+
+    @Test
+    public void startsOver() {
+        Connection first = connection();
+        SessionStore.Session session = store.open("/?session=abc", first).session;
+        record(session, first, "m1", "m2");
+
+        // ahead of the session
+        Connection second = connection();
+        SessionStore.Resumption resumption = store.open("/?session=abc&lastSeq=3", second);
+        assertNull(resumption.messages);
+        assertEquals(0, resumption.seq);
+
+        // numbered from 1 again
+        record(session, second, "n1");
+        assertEquals(Collections.emptyList(), store.open("/?session=abc&lastSeq=1", connection()).messages);
+
+        assertNull(store.open("/?session=abc", connection()).messages);
+        assertNull(store.open("/?session=abc&lastSeq=x", connection()).messages);
+        assertNull(store.open("/?session=abc&lastSeq=-1", connection()).messages);
+    }
+
+    @Test
+    public void maxMessages() {
+        Connection first = connection();
+        SessionStore.Session session = store.open("/?session=abc", first).session;
+        record(session, first, "m1", "m2", "m3", "m4", "m5");
+
+        // m3 to m5 are kept
+        assertEquals(Arrays.<Object>asList("m3", "m4", "m5"), store.open("/?session=abc&lastSeq=2", connection()).messages);
+        assertNull(store.open("/?session=abc&lastSeq=1", connection()).messages);
+    }
+
+    @Test
+    public void maxBytes() {
+        Connection first = connection();
+        SessionStore.Session session = store.open("/?session=abc", first).session;
+        session.record(first, "m1", 600);
+        session.record(first, "m2", 300);
+        session.record(first, "m3", 300);
+
+        assertEquals(Arrays.<Object>asList("m2", "m3"), store.open("/?session=abc&lastSeq=1", connection()).messages);
+    }
+
+    @Test
+    public void skippedMessage() {
+        Connection first = connection();
+        SessionStore.Session session = store.open("/?session=abc", first).session;
+        record(session, first, "m1");
+        // a file: seq 2
+        session.skip(first);
+        record(session, first, "m3");
+        session.detach(first);
+
+        assertNull(store.open("/?session=abc&lastSeq=1", connection()).messages);
+
+        Connection second = connection();
+        session = store.open("/?session=abc", second).session;
+        record(session, second, "m1");
+        session.skip(second);
+        record(session, second, "m3");
+        assertEquals(Arrays.<Object>asList("m3"), store.open("/?session=abc&lastSeq=2", connection()).messages);
+    }
+
+    @Test
+    public void previousConnectionNotRecorded() {
+        Connection first = connection();
+        SessionStore.Session session = store.open("/?session=abc", first).session;
+        record(session, first, "m1");
+
+        Connection second = connection();
+        assertSame(first, store.open("/?session=abc&lastSeq=1", second).previous);
+        // written to the connection being closed
+        record(session, first, "late");
+        record(session, second, "m2");
+
+        SessionStore.Resumption resumption = store.open("/?session=abc&lastSeq=1", connection());
+        assertEquals(Arrays.<Object>asList("m2"), resumption.messages);
+        assertEquals(2, resumption.seq);
+    }
+
+    @Test
+    public void subject() throws Exception {
+        Connection alice = connection("alice");
+        SessionStore.Session session = store.open("/?session=abc", alice).session;
+        record(session, alice, "m1");
+        session.detach(alice);
+
+        assertNull(store.open("/?session=abc&lastSeq=0", connection("mallory")));
+        assertNull(store.open("/?session=abc&lastSeq=0", connection()));
+        assertEquals(Arrays.<Object>asList("m1"), store.open("/?session=abc&lastSeq=0", connection("alice")).messages);
+
+        // a session without subject isn't taken over by a subject either
+        store.open("/?session=anonymous", connection());
+        assertNull(store.open("/?session=anonymous", connection("alice")));
+
+        assertEquals(3, store.toJSON().getLong("refused"));
+    }
+
+    @Test
+    public void maxSessions() throws Exception {
+        SessionStore small = new SessionStore(1, 3, 1000, 60000, null, null);
+        Connection first = connection();
+        SessionStore.Session session = small.open("/?session=a", first).session;
+
+        // the only session is attached
+        assertNull(small.open("/?session=b", connection()));
+
+        session.detach(first);
+        assertNotNull(small.open("/?session=b", connection()));
+        assertNull(small.open("/?session=a&lastSeq=0", connection()));
+        assertEquals(1, small.toJSON().getLong("expired"));
+    }
+
+    private static void record(SessionStore.Session session, Connection conn, String... messages) {
+        for (String msg : messages) {
+            session.record(conn, msg, msg.length());
+        }
+    }
+
+    private static Connection connection() {
+        return new Connection(UUID.randomUUID().toString(), null);
+    }
+
+    private static Connection connection(String subject) throws Exception {
+        Connection conn = connection();
+        conn.claims = new JSONObject().put("sub", subject);
+        return conn;
+    }
+
+}
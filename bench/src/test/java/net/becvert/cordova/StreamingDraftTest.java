@@ -0,0 +1,244 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.Handshakedata;
+import org.java_websocket.protocols.IProtocol;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class StreamingDraftTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 1, 2, 3 and 4 bytes characters
+    private static final String TEXT = "aé€😀bé€😀";
+
+    @Test
+    public void textChunksEndOnWholeCharacters() throws Exception {
+        byte[] bytes = TEXT.getBytes(UTF_8);
+        for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+            Recorder recorder = new Recorder();
+            WebSocketImpl webSocket = webSocket(recorder, 1, chunkSize);
+            webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), bytes, true));
+
+            assertEquals("chunk size " + chunkSize, TEXT, recorder.text());
+            recorder.assertSequence();
+            for (String chunk : recorder.chunks) {
+                assertFalse("chunk size " + chunkSize, chunk.contains("�"));
+                if (chunk.length() > 0) {
+                    assertFalse("chunk size " + chunkSize, Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void characterSplitBetweenFrames() throws Exception {
+        byte[] bytes = TEXT.getBytes(UTF_8);
+        for (int split = 1; split < bytes.length; split++) {
+            Recorder recorder = new Recorder();
+            WebSocketImpl webSocket = webSocket(recorder, 1, 1024);
+            webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), Arrays.copyOfRange(bytes, 0, split), false));
+            webSocket.getDraft().processFrame(webSocket,
+                    frame(new ContinuousFrame(), Arrays.copyOfRange(bytes, split, bytes.length), true));
+
+            assertEquals("split at " + split, TEXT, recorder.text());
+            recorder.assertSequence();
+        }
+    }
+
+    @Test
+    public void invalidUtf8() throws Exception {
+        assertInvalid(new byte[] { 'a', (byte) 0xc3, 'b', 'c' });
+        // truncated 3 bytes character at the end of the message
+        assertInvalid(new byte[] { 'a', 'b', (byte) 0xe2, (byte) 0x82 });
+    }
+
+    @Test
+    public void binaryChunks() throws Exception {
+        byte[] bytes = new byte[10];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        Recorder recorder = new Recorder();
+        WebSocketImpl webSocket = webSocket(recorder, 4, 4);
+        webSocket.getDraft().processFrame(webSocket, frame(new BinaryFrame(), Arrays.copyOfRange(bytes, 0, 3), false));
+        webSocket.getDraft().processFrame(webSocket, frame(new ContinuousFrame(), Arrays.copyOfRange(bytes, 3, 10), true));
+
+        // the 3 bytes held below the threshold, then the next frame sliced in 4 + 3
+        assertEquals(3, recorder.binary.size());
+        assertEquals(3, recorder.binary.get(0).length);
+        assertEquals(4, recorder.binary.get(1).length);
+        assertArrayEquals(bytes, recorder.bytes());
+        recorder.assertSequence();
+    }
+
+    @Test
+    public void smallMessagesAreWhole() throws Exception {
+        Recorder recorder = new Recorder();
+        WebSocketImpl webSocket = webSocket(recorder, 1024, 4);
+        byte[] bytes = TEXT.getBytes(UTF_8);
+        webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), Arrays.copyOfRange(bytes, 0, 2), false));
+        webSocket.getDraft().processFrame(webSocket, frame(new ContinuousFrame(), Arrays.copyOfRange(bytes, 2, bytes.length), true));
+        webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), bytes, true));
+
+        assertEquals(Arrays.asList(TEXT, TEXT), recorder.messages);
+        assertEquals(0, recorder.chunks.size());
+    }
+
+    @Test
+    public void sequenceRestartsWithEachMessage() throws Exception {
+        Recorder recorder = new Recorder();
+        WebSocketImpl webSocket = webSocket(recorder, 1, 4);
+        byte[] bytes = TEXT.getBytes(UTF_8);
+        webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), bytes, true));
+        int first = recorder.chunks.size();
+        webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), bytes, true));
+
+        assertEquals(0, (int) recorder.seqs.get(first));
+        assertEquals(TEXT + TEXT, recorder.text());
+    }
+
+    private static void assertInvalid(byte[] bytes) throws Exception {
+        Recorder recorder = new Recorder();
+        WebSocketImpl webSocket = webSocket(recorder, 1, 2);
+        try {
+            webSocket.getDraft().processFrame(webSocket, frame(new TextFrame(), bytes, true));
+            fail("decoded " + Arrays.toString(bytes));
+        } catch (InvalidDataException e) {
+            assertEquals(CloseFrame.NO_UTF8, e.getCloseCode());
+        }
+    }
+
+    private static WebSocketImpl webSocket(Recorder recorder, int threshold, int chunkSize) {
+        StreamingDraft draft = new StreamingDraft(Collections.<IExtension>emptyList(),
+                Collections.<IProtocol>emptyList(), threshold, chunkSize);
+        return new WebSocketImpl(recorder, draft);
+    }
+
+    private static Framedata frame(DataFrame frame, byte[] payload, boolean fin) {
+        frame.setPayload(ByteBuffer.wrap(payload));
+        frame.setFin(fin);
+        return frame;
+    }
+
+    private static class Recorder extends WebSocketAdapter implements StreamingDraft.Listener {
+
+        final List<String> chunks = new ArrayList<String>();
+
+        final List<byte[]> binary = new ArrayList<byte[]>();
+
+        final List<Integer> seqs = new ArrayList<Integer>();
+
+        final List<Boolean> lasts = new ArrayList<Boolean>();
+
+        final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public void onMessageChunk(WebSocket webSocket, String chunk, int seq, boolean last) {
+            chunks.add(chunk);
+            seqs.add(seq);
+            lasts.add(last);
+        }
+
+        @Override
+        public void onMessageChunk(WebSocket webSocket, ByteBuffer chunk, int seq, boolean last) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            binary.add(bytes);
+            seqs.add(seq);
+            lasts.add(last);
+        }
+
+        String text() {
+            StringBuilder sb = new StringBuilder();
+            for (String chunk : chunks) {
+                sb.append(chunk);
+            }
+            return sb.toString();
+        }
+
+        byte[] bytes() {
+            ByteBuffer all = ByteBuffer.allocate(1024);
+            for (byte[] chunk : binary) {
+                all.put(chunk);
+            }
+            return Arrays.copyOf(all.array(), all.position());
+        }
+
+        // seq from 0, last on the last chunk only, for a single message
+        void assertSequence() {
+            for (int i = 0; i < seqs.size(); i++) {
+                assertEquals(i, (int) seqs.get(i));
+                assertEquals(i == seqs.size() - 1, lasts.get(i));
+            }
+        }
+
+        @Override
+        public void onWebsocketMessage(WebSocket conn, String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onWebsocketMessage(WebSocket conn, ByteBuffer blob) {
+        }
+
+        @Override
+        public void onWebsocketOpen(WebSocket conn, Handshakedata d) {
+        }
+
+        @Override
+        public void onWebsocketClose(WebSocket ws, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onWebsocketClosing(WebSocket ws, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onWebsocketCloseInitiated(WebSocket ws, int code, String reason) {
+        }
+
+        @Override
+        public void onWebsocketError(WebSocket conn, Exception ex) {
+            throw new AssertionError(ex);
+        }
+
+        @Override
+        public void onWriteDemand(WebSocket conn) {
+        }
+
+        @Override
+        public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package net.becvert.cordova;
+
+import android.util.Base64;
+
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TokenVerifierTest {
+
+    private static final String SECRET = "secret";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final TokenVerifier verifier = new TokenVerifier(SECRET, TokenVerifier.DEFAULT_QUERY_PARAM,
+            TokenVerifier.DEFAULT_HEADER);
+
+    @Test
+    public void validToken() throws Exception {
+        String token = token(hs256(), claims().put("sub", "alice"), SECRET);
+
+        JSONObject claims = verifier.verify(query(token));
+        assertNotNull(claims);
+        assertEquals("alice", claims.getString("sub"));
+
+        assertNotNull(verifier.verify(header("Bearer " + token)));
+        assertNotNull(verifier.verify(header(token)));
+    }
+
+    @Test
+    public void urlEncodedQueryParameter() throws Exception {
+        String token = token(hs256(), claims(), SECRET);
+
+        assertNotNull(verifier.verify(request("/path?a=1&token=" + token.replace(".", "%2E") + "&b=2", null)));
+    }
+
+    @Test
+    public void badSignature() throws Exception {
+        assertNull(verifier.verify(query(token(hs256(), claims(), "other secret"))));
+
+        // claims replaced, signature kept
+        String token = token(hs256(), claims().put("sub", "alice"), SECRET);
+        String forged = token(hs256(), claims().put("sub", "mallory"), SECRET);
+        String[] parts = token.split("\\.");
+        String[] forgedParts = forged.split("\\.");
+        assertNull(verifier.verify(query(parts[0] + "." + forgedParts[1] + "." + parts[2])));
+
+        // no signature
+        assertNull(verifier.verify(query(parts[0] + "." + parts[1] + ".")));
+    }
+
+    @Test
+    public void otherAlgorithms() throws Exception {
+        assertNull(verifier.verify(query(token(new JSONObject().put("alg", "none").put("typ", "JWT"), claims(), SECRET))));
+        assertNull(verifier.verify(query(token(new JSONObject().put("alg", "HS512").put("typ", "JWT"), claims(), SECRET))));
+        assertNull(verifier.verify(query(token(new JSONObject().put("typ", "JWT"), claims(), SECRET))));
+    }
+
+    @Test
+    public void expiration() throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+
+        assertNull(verifier.verify(query(token(hs256(), new JSONObject().put("exp", now - 1), SECRET))));
+        assertNull(verifier.verify(query(token(hs256(), new JSONObject().put("exp", now), SECRET))));
+        assertNull(verifier.verify(query(token(hs256(), new JSONObject().put("sub", "alice"), SECRET))));
+        assertNull(verifier.verify(query(token(hs256(), claims().put("nbf", now + 60), SECRET))));
+        assertNotNull(verifier.verify(query(token(hs256(), claims().put("nbf", now - 60), SECRET))));
+    }
+
+    @Test
+    public void malformedToken() throws Exception {
+        assertNull(verifier.verify(request("/", null)));
+        assertNull(verifier.verify(query("")));
+        assertNull(verifier.verify(query("abc")));
+        assertNull(verifier.verify(query("abc.def")));
+        assertNull(verifier.verify(query(".abc.def")));
+        assertNull(verifier.verify(query("a!b.c!d.e!f")));
+    }
+
+    private static JSONObject hs256() throws Exception {
+        return new JSONObject().put("alg", "HS256").put("typ", "JWT");
+    }
+
+    private static JSONObject claims() throws Exception {
+        return new JSONObject().put("exp", System.currentTimeMillis() / 1000 + 60);
+    }
+
+    private static String token(JSONObject header, JSONObject claims, String secret) throws Exception {
+        String signed = encode(header.toString().getBytes(UTF_8)) + "." + encode(claims.toString().getBytes(UTF_8));
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(UTF_8), "HmacSHA256"));
+        return signed + "." + encode(mac.doFinal(signed.getBytes(UTF_8)));
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+    }
+
+    private static HandshakeImpl1Client query(String token) {
+        return request("/?token=" + token, null);
+    }
+
+    private static HandshakeImpl1Client header(String value) {
+        return request("/", value);
+    }
+
+    private static HandshakeImpl1Client request(String resource, String authorization) {
+        HandshakeImpl1Client request = new HandshakeImpl1Client();
+        request.setResourceDescriptor(resource);
+        if (authorization != null) {
+            request.put(TokenVerifier.DEFAULT_HEADER, authorization);
+        }
+        return request;
+    }
+
+}
@@ -0,0 +1,58 @@
+package net.becvert.cordova;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicRegistryTest {
+
+    @Test
+    public void maxTopicsPerConnection() throws Exception {
+        TopicRegistry registry = new TopicRegistry();
+        registry.setClientLimits(2, 100);
+        Connection conn = connection();
+
+        assertTrue(registry.subscribeClient(conn, "a"));
+        assertTrue(registry.subscribeClient(conn, "b"));
+        assertFalse(registry.subscribeClient(conn, "c"));
+        // already subscribed
+        assertTrue(registry.subscribeClient(conn, "a"));
+
+        registry.unsubscribe(conn, "a");
+        assertTrue(registry.subscribeClient(conn, "c"));
+        assertEquals(2, conn.topics.size());
+    }
+
+    @Test
+    public void maxTopics() throws Exception {
+        TopicRegistry registry = new TopicRegistry();
+        registry.setClientLimits(10, 2);
+        Connection first = connection();
+        Connection second = connection();
+
+        assertTrue(registry.subscribeClient(first, "a"));
+        assertTrue(registry.subscribeClient(first, "b"));
+        assertFalse(registry.subscribeClient(second, "c"));
+        // existing topics
+        assertTrue(registry.subscribeClient(second, "a"));
+        assertEquals(2, registry.subscribers("a").size());
+        assertEquals(2, registry.toJSON().length());
+
+        // the WebView isn't limited
+        registry.subscribe(second, "c");
+        assertEquals(3, registry.toJSON().length());
+
+        registry.unsubscribeAll(first);
+        registry.unsubscribe(second, "c");
+        assertTrue(registry.subscribeClient(connection(), "d"));
+    }
+
+    private static Connection connection() {
+        return new Connection(UUID.randomUUID().toString(), null);
+    }
+
+}
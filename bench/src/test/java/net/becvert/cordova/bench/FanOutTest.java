@@ -0,0 +1,118 @@
+package net.becvert.cordova.bench;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Every client receives every message of broadcast, sendToMany and publish,
+// whole and in order. The messages alternate text and binary, each with its
+// own content, and are large enough for the sender lanes to write them at the
+// same time.
+public class FanOutTest {
+
+    private static final int CLIENTS = 16;
+
+    private static final int MESSAGES = 100;
+
+    private static final int SIZE = 64 * 1024;
+
+    private static final String TOPIC = "test";
+
+    private PluginHarness harness;
+
+    private BenchClient[] clients;
+
+    private final Semaphore received = new Semaphore(0);
+
+    private JSONArray uuids;
+
+    private Object[] payloads;
+
+    @Before
+    public void setUp() throws Exception {
+        payloads = new Object[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            payloads[i] = i % 2 == 0 ? i + ":" + Payloads.text(SIZE) : Payloads.binary(SIZE + i);
+        }
+
+        harness = new PluginHarness();
+        int port = harness.start(new JSONObject());
+        clients = new BenchClient[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = new BenchClient(port, received);
+            clients[i].expect(payloads);
+            assertTrue(clients[i].connectBlocking());
+        }
+        assertTrue(harness.opened.tryAcquire(CLIENTS, 10, TimeUnit.SECONDS));
+        uuids = new JSONArray(harness.uuids);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (BenchClient client : clients) {
+            client.closeBlocking();
+        }
+        harness.stop();
+    }
+
+    @Test
+    public void broadcast() throws Exception {
+        for (int i = 0; i < MESSAGES; i++) {
+            if (payloads[i] instanceof String) {
+                harness.exec("broadcast", new JSONArray().put(payloads[i]));
+            } else {
+                harness.exec("broadcast_binary", new JSONArray().put(base64(i)));
+            }
+        }
+        verify();
+    }
+
+    @Test
+    public void sendToMany() throws Exception {
+        for (int i = 0; i < MESSAGES; i++) {
+            if (payloads[i] instanceof String) {
+                harness.exec("sendToMany", new JSONArray().put(uuids).put(payloads[i]));
+            } else {
+                harness.exec("sendToMany_binary", new JSONArray().put(uuids).put(base64(i)));
+            }
+        }
+        verify();
+    }
+
+    @Test
+    public void publish() throws Exception {
+        for (int i = 0; i < uuids.length(); i++) {
+            harness.exec("subscribe", new JSONArray().put(uuids.get(i)).put(TOPIC));
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            if (payloads[i] instanceof String) {
+                harness.exec("publish", new JSONArray().put(TOPIC).put(payloads[i]));
+            } else {
+                harness.exec("publish_binary", new JSONArray().put(TOPIC).put(base64(i)));
+            }
+        }
+        verify();
+    }
+
+    private String base64(int i) {
+        return Base64.encodeToString((byte[]) payloads[i], Base64.NO_WRAP);
+    }
+
+    private void verify() throws InterruptedException {
+        assertTrue("messages received", received.tryAcquire(CLIENTS * MESSAGES, 30, TimeUnit.SECONDS));
+        for (BenchClient client : clients) {
+            assertEquals(client.getFirstError(), 0, client.getErrors());
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package net.becvert.cordova;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.CloseFrame;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits on the connections a server accepts: a maximum number of connections,
+// a maximum number of connections per remote address and a token bucket on the
+// handshakes. The limits are checked in the handshake, so that a rejected client
+// gets an HTTP error and no onOpen event reaches the WebView. Since the decoder
+// threads handshake concurrently, the connection is only counted in onOpen
+// through admit(), which closes the few connections that got past the checks.
+// 0 means no limit.
+public class AdmissionControl {
+
+    public static final String REJECTED_REASON = "Try again later";
+
+    private final int maxConnections;
+
+    private final int maxConnectionsPerAddress;
+
+    // handshakes per second, and the size of the bucket
+    private final double handshakeRate;
+
+    private final double handshakeBurst;
+
+    private final AtomicInteger connections = new AtomicInteger(0);
+
+    private final ConcurrentHashMap<String, AtomicInteger> connectionsPerAddress = new ConcurrentHashMap<String, AtomicInteger>();
+
+    // guarded by this
+    private double tokens;
+
+    // guarded by this
+    private long refilledAt = System.nanoTime();
+
+    final AtomicLong rejectedMaxConnections = new AtomicLong();
+
+    final AtomicLong rejectedPerAddress = new AtomicLong();
+
+    final AtomicLong rejectedRate = new AtomicLong();
+
+    public AdmissionControl(int maxConnections, int maxConnectionsPerAddress, double handshakeRate,
+            int handshakeBurst) {
+        this.maxConnections = Math.max(0, maxConnections);
+        this.maxConnectionsPerAddress = Math.max(0, maxConnectionsPerAddress);
+        this.handshakeRate = Math.max(0, handshakeRate);
+        this.handshakeBurst = handshakeBurst > 0 ? handshakeBurst : Math.max(1, Math.ceil(this.handshakeRate));
+        this.tokens = this.handshakeBurst;
+    }
+
+    // called from the handshake, on the decoder thread of the connection
+    public void checkHandshake(String address) throws InvalidDataException {
+        if (handshakeRate > 0 && !takeToken()) {
+            rejectedRate.incrementAndGet();
+            PluginLog.w("handshake: rate limited: ", address);
+            throw new InvalidDataException(CloseFrame.TRY_AGAIN_LATER, REJECTED_REASON);
+        }
+        if (maxConnections > 0 && connections.get() >= maxConnections) {
+            rejectedMaxConnections.incrementAndGet();
+            PluginLog.w("handshake: max connections reached: ", address);
+            throw new InvalidDataException(CloseFrame.TRY_AGAIN_LATER, REJECTED_REASON);
+        }
+        if (maxConnectionsPerAddress > 0 && address != null) {
+            AtomicInteger count = connectionsPerAddress.get(address);
+            if (count != null && count.get() >= maxConnectionsPerAddress) {
+                rejectedPerAddress.incrementAndGet();
+                PluginLog.w("handshake: max connections per address reached: ", address);
+                throw new InvalidDataException(CloseFrame.TRY_AGAIN_LATER, REJECTED_REASON);
+            }
+        }
+    }
+
+    // counts an opened connection, false if it is over a limit and must be closed
+    public boolean admit(String address) {
+        if (maxConnections > 0 && connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            rejectedMaxConnections.incrementAndGet();
+            return false;
+        }
+        if (maxConnectionsPerAddress > 0 && address != null) {
+            AtomicInteger count;
+            int n;
+            do {
+                count = countOf(address);
+                n = count.incrementAndGet();
+                // retry if the counter was removed as zero meanwhile
+            } while (connectionsPerAddress.get(address) != count);
+            if (n > maxConnectionsPerAddress) {
+                releaseAddress(address, count);
+                if (maxConnections > 0) {
+                    connections.decrementAndGet();
+                }
+                rejectedPerAddress.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // called from onClose for an admitted connection
+    public void release(String address) {
+        if (maxConnections > 0) {
+            connections.decrementAndGet();
+        }
+        if (maxConnectionsPerAddress > 0 && address != null) {
+            AtomicInteger count = connectionsPerAddress.get(address);
+            if (count != null) {
+                releaseAddress(address, count);
+            }
+        }
+    }
+
+    public void clear() {
+        connections.set(0);
+        connectionsPerAddress.clear();
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("rejectedMaxConnections", rejectedMaxConnections.get());
+        json.put("rejectedPerAddress", rejectedPerAddress.get());
+        json.put("rejectedRate", rejectedRate.get());
+        return json;
+    }
+
+    private AtomicInteger countOf(String address) {
+        AtomicInteger count = connectionsPerAddress.get(address);
+        if (count == null) {
+            count = new AtomicInteger(0);
+            AtomicInteger existing = connectionsPerAddress.putIfAbsent(address, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        return count;
+    }
+
+    private void releaseAddress(String address, AtomicInteger count) {
+        if (count.decrementAndGet() <= 0) {
+            connectionsPerAddress.remove(address, count);
+        }
+    }
+
+    private synchronized boolean takeToken() {
+        long now = System.nanoTime();
+        tokens = Math.min(handshakeBurst, tokens + (now - refilledAt) * handshakeRate / 1e9);
+        refilledAt = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+}
@@ -0,0 +1,114 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// native state of a websocket connection, attached to its WebSocket
+public class Connection {
+
+    public final String uuid;
+
+    // compact id, 0 for a uuid, see ConnectionRegistry
+    public final int id;
+
+    // id of the connection in the events: a number for a compact id
+    final Object eventId;
+
+    public final WebSocket webSocket;
+
+    // messages waiting for the outbound pipeline
+    final Queue<Object> outbound = new ConcurrentLinkedQueue<Object>();
+
+    // size of the outbound queue
+    final AtomicInteger pending = new AtomicInteger(0);
+
+    // whether the socket is above the high watermark
+    volatile boolean congested = false;
+
+    // whether the connection waits for its socket to drain
+    volatile boolean held = false;
+
+    // set by the close policy: the lane drops the queue and closes the websocket
+    volatile boolean overflowed = false;
+
+    // queued conflated messages by key
+    final ConcurrentHashMap<String, OutboundPipeline.ConflatedMessage> conflated = new ConcurrentHashMap<String, OutboundPipeline.ConflatedMessage>();
+
+    // whether the connection is waiting in its lane
+    final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    final AtomicLong messagesIn = new AtomicLong();
+
+    final AtomicLong bytesIn = new AtomicLong();
+
+    final AtomicLong messagesOut = new AtomicLong();
+
+    final AtomicLong bytesOut = new AtomicLong();
+
+    // remote address, set in onOpen
+    String address;
+
+    // kept until getConnectionInfo builds the info, set in onOpen
+    ClientHandshake handshake;
+
+    // verified token claims, set in onOpen
+    JSONObject claims;
+
+    // session resumed or started in onOpen, see SessionStore
+    volatile SessionStore.Session session;
+
+    // set in onOpen once the session replay is queued, skipped by the fan-out until then
+    volatile boolean opened = false;
+
+    // built by the first getConnectionInfo, guarded by this
+    JSONObject info;
+
+    // decoder thread of the connection, set in onOpen
+    ServerMetrics.Worker worker;
+
+    // subscribed topics, see TopicRegistry
+    final Set<String> topics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // set once the connection is closed, no more subscriptions
+    volatile boolean unsubscribed = false;
+
+    // last pong or message, in nanoseconds
+    volatile long lastSeen = System.nanoTime();
+
+    // round-trip times in microseconds, created on the first pong
+    private volatile Histogram rtt;
+
+    public Connection(String uuid, WebSocket webSocket) {
+        this(uuid, 0, webSocket);
+    }
+
+    public Connection(String uuid, int id, WebSocket webSocket) {
+        this.uuid = uuid;
+        this.id = id;
+        this.eventId = id != 0 ? (Object) Integer.valueOf(id) : uuid;
+        this.webSocket = webSocket;
+    }
+
+    Histogram rtt() {
+        if (rtt == null) {
+            // only written by the decoder thread of the connection
+            rtt = new Histogram();
+        }
+        return rtt;
+    }
+
+    Histogram getRtt() {
+        return rtt;
+    }
+
+}
@@ -0,0 +1,191 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocket;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// uuid -> connection lookups go through a concurrent map, socket -> connection
+// lookups through the attachment of the socket. Safe to use from the selector,
+// the decoder workers and the Cordova threads at the same time.
+//
+// With compact ids, a connection id is (generation << 16) | slot: the slot
+// indexes a table of the open connections and the generation of the slot is
+// incremented on each reuse, so that the id of a closed connection does not
+// designate the next one. The ids are positive ints, with no SecureRandom.
+public class ConnectionRegistry {
+
+    static final int SLOT_BITS = 16;
+
+    static final int MAX_SLOTS = 1 << SLOT_BITS;
+
+    private static final int GENERATION_MASK = 0x7fff;
+
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+
+    private boolean compact = false;
+
+    // compact ids only, replaced when growing, guarded by this for writing
+    private volatile AtomicReferenceArray<Connection> slots;
+
+    // guarded by this
+    private int[] generations;
+
+    // free slots, guarded by this
+    private int[] free;
+
+    // guarded by this
+    private int freeCount = 0;
+
+    // slots used so far, guarded by this
+    private int used = 0;
+
+    // before the server starts
+    public synchronized void setCompactIds(boolean compact) {
+        this.compact = compact;
+        if (compact && slots == null) {
+            slots = new AtomicReferenceArray<Connection>(64);
+            generations = new int[64];
+            free = new int[64];
+        }
+    }
+
+    // null if there is no free slot left
+    public Connection register(WebSocket webSocket) {
+        Connection conn;
+        if (compact) {
+            conn = registerCompact(webSocket);
+            if (conn == null) {
+                return null;
+            }
+            connections.put(conn.uuid, conn);
+        } else {
+            do {
+                // prevent collision
+                conn = new Connection(UUID.randomUUID().toString(), webSocket);
+            } while (connections.putIfAbsent(conn.uuid, conn) != null);
+        }
+
+        webSocket.setAttachment(conn);
+        return conn;
+    }
+
+    public Connection unregister(WebSocket webSocket) {
+        Connection conn = get(webSocket);
+        if (conn != null) {
+            webSocket.setAttachment(null);
+            if (connections.remove(conn.uuid, conn) && conn.id != 0) {
+                releaseSlot(conn);
+            }
+        }
+        return conn;
+    }
+
+    public Connection get(String uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        if (compact) {
+            int id = parseId(uuid);
+            if (id <= 0) {
+                return null;
+            }
+            AtomicReferenceArray<Connection> table = slots;
+            int slot = id & (MAX_SLOTS - 1);
+            if (slot >= table.length()) {
+                return null;
+            }
+            Connection conn = table.get(slot);
+            return conn != null && conn.id == id ? conn : null;
+        }
+        return connections.get(uuid);
+    }
+
+    public Connection get(WebSocket webSocket) {
+        Object attachment = webSocket.getAttachment();
+        return attachment instanceof Connection ? (Connection) attachment : null;
+    }
+
+    public Collection<Connection> values() {
+        return connections.values();
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    public synchronized void clear() {
+        connections.clear();
+        if (compact) {
+            for (int i = 0; i < used; i++) {
+                if (slots.get(i) != null) {
+                    slots.set(i, null);
+                    free[freeCount++] = i;
+                }
+            }
+        }
+    }
+
+    private synchronized Connection registerCompact(WebSocket webSocket) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else if (used < MAX_SLOTS) {
+            slot = used++;
+            if (slot == slots.length()) {
+                grow();
+            }
+        } else {
+            return null;
+        }
+        // generation 0 is skipped, so that ids are never 0
+        int generation = generations[slot] = (generations[slot] % GENERATION_MASK) + 1;
+        int id = (generation << SLOT_BITS) | slot;
+        Connection conn = new Connection(Integer.toString(id), id, webSocket);
+        slots.set(slot, conn);
+        return conn;
+    }
+
+    private synchronized void releaseSlot(Connection conn) {
+        int slot = conn.id & (MAX_SLOTS - 1);
+        if (slots.get(slot) == conn) {
+            slots.set(slot, null);
+            free[freeCount++] = slot;
+        }
+    }
+
+    private void grow() {
+        int length = Math.min(slots.length() * 2, MAX_SLOTS);
+        AtomicReferenceArray<Connection> grown = new AtomicReferenceArray<Connection>(length);
+        for (int i = 0; i < slots.length(); i++) {
+            grown.set(i, slots.get(i));
+        }
+        int[] grownGenerations = new int[length];
+        System.arraycopy(generations, 0, grownGenerations, 0, generations.length);
+        int[] grownFree = new int[length];
+        System.arraycopy(free, 0, grownFree, 0, freeCount);
+        generations = grownGenerations;
+        free = grownFree;
+        slots = grown;
+    }
+
+    // -1 if not a compact id
+    private static int parseId(String id) {
+        int length = id.length();
+        if (length == 0 || length > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+
+}
@@ -0,0 +1,128 @@
+package net.becvert.cordova;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// permessage-deflate with a configurable compression level, counting the bytes
+// before and after compression. Every connection gets its own copy, sharing
+// the settings and the counters.
+public class DeflateExtension extends PerMessageDeflateExtension {
+
+    public static class Stats {
+
+        final AtomicLong framesOut = new AtomicLong();
+
+        final AtomicLong uncompressedBytesOut = new AtomicLong();
+
+        final AtomicLong compressedBytesOut = new AtomicLong();
+
+        final AtomicLong framesIn = new AtomicLong();
+
+        final AtomicLong compressedBytesIn = new AtomicLong();
+
+        final AtomicLong uncompressedBytesIn = new AtomicLong();
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject stats = new JSONObject();
+            stats.put("framesOut", framesOut.get());
+            stats.put("uncompressedBytesOut", uncompressedBytesOut.get());
+            stats.put("compressedBytesOut", compressedBytesOut.get());
+            stats.put("framesIn", framesIn.get());
+            stats.put("compressedBytesIn", compressedBytesIn.get());
+            stats.put("uncompressedBytesIn", uncompressedBytesIn.get());
+            return stats;
+        }
+    }
+
+    private final int level;
+
+    private final Stats stats;
+
+    // whether the fragmented message being sent is compressed
+    private boolean compressingFragments = false;
+
+    public DeflateExtension(int level, int threshold, boolean serverNoContextTakeover,
+            boolean clientNoContextTakeover, Stats stats) {
+        this.level = level;
+        this.stats = stats;
+        setThreshold(threshold);
+        setServerNoContextTakeover(serverNoContextTakeover);
+        setClientNoContextTakeover(clientNoContextTakeover);
+        setDeflater(new Deflater(level, true));
+        setInflater(new Inflater(true));
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // the continuation frames of a message compressed by its first frame are
+    // compressed whatever their size, and the others are left as they are
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        if (!(inputFrame instanceof DataFrame)) {
+            return;
+        }
+        int uncompressed = inputFrame.getPayloadData().remaining();
+        boolean compressed;
+        if (inputFrame instanceof ContinuousFrame) {
+            compressed = compressingFragments;
+            if (compressed) {
+                int threshold = getThreshold();
+                setThreshold(0);
+                try {
+                    super.encodeFrame(inputFrame);
+                } finally {
+                    setThreshold(threshold);
+                }
+            }
+        } else {
+            super.encodeFrame(inputFrame);
+            compressed = inputFrame.isRSV1();
+        }
+        compressingFragments = compressed && !inputFrame.isFin();
+        if (compressed && inputFrame.isFin() && isServerNoContextTakeover()) {
+            // the context was reset with a new Deflater at the default level. Not
+            // setLevel(): the next deflate() would return no bytes, ending the loop
+            // of PerMessageDeflateExtension with an empty payload
+            getDeflater().end();
+            setDeflater(new Deflater(level, true));
+        }
+
+        if (compressed) {
+            stats.framesOut.incrementAndGet();
+            stats.uncompressedBytesOut.addAndGet(uncompressed);
+            stats.compressedBytesOut.addAndGet(inputFrame.getPayloadData().remaining());
+        }
+    }
+
+    @Override
+    public void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        boolean compressed = inputFrame.isRSV1();
+        int size = inputFrame.getPayloadData().remaining();
+        super.decodeFrame(inputFrame);
+        if (compressed) {
+            stats.framesIn.incrementAndGet();
+            stats.compressedBytesIn.addAndGet(size);
+            stats.uncompressedBytesIn.addAndGet(inputFrame.getPayloadData().remaining());
+        }
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        // PerMessageDeflateExtension.copyInstance() drops the settings
+        return new DeflateExtension(level, getThreshold(), isServerNoContextTakeover(),
+                isClientNoContextTakeover(), stats);
+    }
+
+}
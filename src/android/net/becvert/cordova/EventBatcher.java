@@ -0,0 +1,167 @@
+package net.becvert.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// delivers connection events to the WebView as a single 'batch' result,
+// once maxEvents are pending or the oldest one is interval ms old.
+public class EventBatcher {
+
+    public static final int DEFAULT_MAX_EVENTS = 64;
+
+    public static final int DEFAULT_INTERVAL = 8;
+
+    private final CallbackContext callbackContext;
+
+    private final int maxEvents;
+
+    private final long interval;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Histogram deliveryTime;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (EventBatcher.this) {
+                flushScheduled = false;
+                flushLocked();
+            }
+        }
+    };
+
+    // guarded by this
+    private JSONArray pending = new JSONArray();
+
+    // binary payloads of the pending events, delivered as ArrayBuffer parts
+    // guarded by this
+    private List<PluginResult> parts = new ArrayList<PluginResult>();
+
+    // reception times of the pending messages, in nanoseconds
+    // guarded by this
+    private long[] receptionTimes = new long[16];
+
+    // guarded by this
+    private int received = 0;
+
+    // guarded by this
+    private boolean flushScheduled = false;
+
+    // guarded by this
+    private boolean shutdown = false;
+
+    public EventBatcher(CallbackContext callbackContext, int maxEvents, int interval, Histogram deliveryTime) {
+        this.callbackContext = callbackContext;
+        this.deliveryTime = deliveryTime;
+        this.maxEvents = maxEvents > 0 ? maxEvents : DEFAULT_MAX_EVENTS;
+        this.interval = interval > 0 ? interval : DEFAULT_INTERVAL;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WebSocketServer-batcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public synchronized void add(JSONObject event) {
+        add(event, null, 0);
+    }
+
+    // a binary event references its payload by index in the result arguments
+    public synchronized void add(JSONObject event, byte[] binary, long receivedAt) {
+        if (shutdown) {
+            return;
+        }
+        if (receivedAt != 0) {
+            if (received == receptionTimes.length) {
+                long[] grown = new long[received * 2];
+                System.arraycopy(receptionTimes, 0, grown, 0, received);
+                receptionTimes = grown;
+            }
+            receptionTimes[received++] = receivedAt;
+        }
+        if (binary != null) {
+            try {
+                event.put("part", parts.size() + 1);
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+                return;
+            }
+            parts.add(new PluginResult(PluginResult.Status.OK, binary));
+        }
+        pending.put(event);
+        if (pending.length() >= maxEvents) {
+            flushLocked();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(flushTask, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void flush() {
+        flushLocked();
+    }
+
+    public synchronized void shutdown() {
+        flushLocked();
+        shutdown = true;
+        scheduler.shutdownNow();
+    }
+
+    // binaries: the payloads referenced by the 'part' of the events, consumed
+    static PluginResult batchResult(JSONArray events, List<PluginResult> binaries) throws JSONException {
+        JSONObject status = new JSONObject();
+        status.put("action", "batch");
+        status.put("events", events);
+
+        PluginResult result;
+        if (binaries.isEmpty()) {
+            result = new PluginResult(PluginResult.Status.OK, status);
+        } else {
+            binaries.add(0, new PluginResult(PluginResult.Status.OK, status));
+            result = new PluginResult(PluginResult.Status.OK, binaries);
+        }
+        result.setKeepCallback(true);
+        return result;
+    }
+
+    private void flushLocked() {
+        if (pending.length() == 0) {
+            return;
+        }
+        JSONArray events = pending;
+        pending = new JSONArray();
+        int delivered = received;
+        received = 0;
+        List<PluginResult> binaries = parts;
+        if (!binaries.isEmpty()) {
+            parts = new ArrayList<PluginResult>();
+        }
+
+        try {
+            callbackContext.sendPluginResult(batchResult(events, binaries));
+
+            long now = System.nanoTime();
+            for (int i = 0; i < delivered; i++) {
+                deliveryTime.record((now - receptionTimes[i]) / 1000);
+            }
+
+        } catch (JSONException e) {
+            PluginLog.e(e.getMessage(), e);
+        }
+    }
+
+}
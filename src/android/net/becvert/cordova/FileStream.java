@@ -0,0 +1,153 @@
+package net.becvert.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A file sent as one binary message, fragmented into frames of chunkSize bytes
+// read from a FileChannel by the lane of the connection. The bytes never go
+// through the WebView. Progress is reported to the callback of the sendFile
+// call at most every progressInterval ms, then its completion or failure.
+class FileStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_PROGRESS_INTERVAL = 250;
+
+    private final File file;
+
+    private final int chunkSize;
+
+    private final long progressInterval;
+
+    private final CallbackContext callbackContext;
+
+    // guarded by this
+    private FileChannel channel;
+
+    // reused for the full chunks, the frames copy it when they are sent
+    // guarded by this
+    private byte[] chunk;
+
+    // guarded by this
+    private long size = 0;
+
+    // guarded by this
+    private long bytesSent = 0;
+
+    // guarded by this
+    private long progressAt = 0;
+
+    // guarded by this
+    private boolean finished = false;
+
+    FileStream(File file, int chunkSize, int progressInterval, CallbackContext callbackContext) {
+        this.file = file;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        this.progressInterval = progressInterval > 0 ? progressInterval : DEFAULT_PROGRESS_INTERVAL;
+        this.callbackContext = callbackContext;
+    }
+
+    // the next frame payload, null once finished. The file is opened on the first call
+    synchronized ByteBuffer nextChunk() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (channel == null) {
+            channel = new FileInputStream(file).getChannel();
+            size = channel.size();
+            progressAt = System.nanoTime();
+        }
+        long remaining = size - bytesSent;
+        int length = (int) Math.min(chunkSize, remaining);
+        byte[] bytes;
+        if (length == chunkSize) {
+            if (chunk == null) {
+                chunk = new byte[chunkSize];
+            }
+            bytes = chunk;
+        } else {
+            // the array of a payload must have its exact size for permessage-deflate
+            bytes = new byte[length];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, bytesSent + buffer.position()) < 0) {
+                throw new IOException("File truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    synchronized boolean isLastChunk(ByteBuffer chunk) {
+        return bytesSent + chunk.remaining() >= size;
+    }
+
+    synchronized void sent(int bytes) {
+        bytesSent += bytes;
+        long now = System.nanoTime();
+        if (now - progressAt >= progressInterval * 1000000L && bytesSent < size) {
+            progressAt = now;
+            report(false);
+        }
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    synchronized void complete() {
+        if (!finished) {
+            finished = true;
+            closeChannel();
+            report(true);
+        }
+    }
+
+    synchronized void fail(String reason) {
+        if (!finished) {
+            finished = true;
+            closeChannel();
+            PluginLog.d("sendFile: ", reason);
+            callbackContext.error(reason);
+        }
+    }
+
+    private void report(boolean done) {
+        try {
+            JSONObject status = new JSONObject();
+            status.put("bytesSent", bytesSent);
+            status.put("size", size);
+            status.put("done", done);
+            PluginResult result = new PluginResult(PluginResult.Status.OK, status);
+            result.setKeepCallback(!done);
+            callbackContext.sendPluginResult(result);
+        } catch (JSONException e) {
+            PluginLog.e(e.getMessage(), e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                PluginLog.d("sendFile: ", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Pings every connection each interval, with the send time as payload so that
+// the pong gives the round-trip time. A connection that sent neither a pong
+// nor a message for timeout ms is closed with code 1006.
+public class Heartbeat {
+
+    public static final String TIMEOUT_REASON = "Heartbeat timeout";
+
+    private final ConnectionRegistry registry;
+
+    private final ServerMetrics metrics;
+
+    private final long interval;
+
+    private final long timeout;
+
+    private ScheduledExecutorService scheduler;
+
+    public Heartbeat(ConnectionRegistry registry, ServerMetrics metrics, long interval, long timeout) {
+        this.registry = registry;
+        this.metrics = metrics;
+        this.interval = interval;
+        this.timeout = timeout > 0 ? timeout : interval * 2;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WebSocketServer-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                beat();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void beat() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        for (Connection conn : registry.values()) {
+            WebSocket webSocket = conn.webSocket;
+            if (!webSocket.isOpen()) {
+                continue;
+            }
+
+            if (now - conn.lastSeen > timeoutNanos) {
+                PluginLog.d("heartbeat: timeout of ", conn.uuid);
+                metrics.connectionsTimedOut.incrementAndGet();
+                webSocket.closeConnection(CloseFrame.ABNORMAL_CLOSE, TIMEOUT_REASON);
+                continue;
+            }
+
+            PingFrame ping = new PingFrame();
+            ByteBuffer payload = ByteBuffer.allocate(8);
+            payload.putLong(0, now);
+            ping.setPayload(payload);
+            try {
+                webSocket.sendFrame(ping);
+            } catch (WebsocketNotConnectedException e) {
+                // closed meanwhile
+            }
+        }
+    }
+
+    // from onWebsocketPong, on the decoder thread of the connection
+    public void onPong(Connection conn, Framedata pong) {
+        long now = System.nanoTime();
+        conn.lastSeen = now;
+
+        ByteBuffer payload = pong.getPayloadData();
+        if (payload.remaining() == 8) {
+            long rtt = (now - payload.getLong(payload.position())) / 1000;
+            // ignores the pongs not answering our pings
+            if (rtt >= 0 && rtt <= TimeUnit.MILLISECONDS.toMicros(timeout)) {
+                conn.rtt().record(rtt);
+                metrics.rtt.record(rtt);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package net.becvert.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rules applied to the text messages on the decoder threads, before any event
+// is built: the first rule matching a message decides whether it is dropped,
+// sampled (1 message in 'every' is delivered) or answered with a reply, which
+// is sent without delivering the message. A rule matches the whole message,
+// its prefix, or a JSON field with a given value; fields are found by scanning
+// the text, at any depth, without parsing it. Rules are immutable, setRules
+// replaces them all.
+public class MessageRules {
+
+    public enum Action {
+        DROP, SAMPLE, REPLY;
+
+        public static Action fromString(String action) {
+            if ("drop".equals(action)) {
+                return DROP;
+            } else if ("sample".equals(action)) {
+                return SAMPLE;
+            } else if ("reply".equals(action)) {
+                return REPLY;
+            }
+            throw new IllegalArgumentException("Unknown rule action: " + action);
+        }
+    }
+
+    private final Rule[] rules;
+
+    private MessageRules(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    // [{id, exact | prefix | field + value, action, every, reply}]
+    public static MessageRules parse(JSONArray json) throws JSONException {
+        Rule[] rules = new Rule[json.length()];
+        for (int i = 0; i < rules.length; i++) {
+            JSONObject rule = json.getJSONObject(i);
+            String id = rule.isNull("id") ? String.valueOf(i) : rule.optString("id");
+            Action action = Action.fromString(rule.optString("action"));
+            String exact = rule.isNull("exact") ? null : rule.optString("exact");
+            String prefix = rule.isNull("prefix") ? null : rule.optString("prefix");
+            String field = null;
+            String value = null;
+            if (!rule.isNull("field")) {
+                field = quote(rule.optString("field"));
+                Object fieldValue = rule.opt("value");
+                if (fieldValue == null) {
+                    throw new IllegalArgumentException("Rule " + id + ": field without value");
+                }
+                value = fieldValue instanceof String ? quote((String) fieldValue) : String.valueOf(fieldValue);
+            }
+            if (exact == null && prefix == null && field == null) {
+                throw new IllegalArgumentException("Rule " + id + ": exact, prefix or field required");
+            }
+            String reply = rule.isNull("reply") ? null : rule.optString("reply");
+            if (action == Action.REPLY && reply == null) {
+                throw new IllegalArgumentException("Rule " + id + ": reply required");
+            }
+            rules[i] = new Rule(id, exact, prefix, field, value, action, Math.max(1, rule.optInt("every", 1)), reply);
+        }
+        return new MessageRules(rules);
+    }
+
+    // a field name or string value as the clients encode it: JSONObject.quote()
+    // also escapes '/', which JSON allows but doesn't require
+    static String quote(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    // the first matching rule, or null
+    public Rule match(String msg) {
+        for (Rule rule : rules) {
+            if (rule.matches(msg)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    public JSONArray toJSON() throws JSONException {
+        JSONArray json = new JSONArray();
+        for (Rule rule : rules) {
+            JSONObject ruleJSON = new JSONObject();
+            ruleJSON.put("id", rule.id);
+            ruleJSON.put("hits", rule.hits.get());
+            json.put(ruleJSON);
+        }
+        return json;
+    }
+
+    public static class Rule {
+
+        final String id;
+
+        final String exact;
+
+        final String prefix;
+
+        // quoted name and JSON encoded value
+        final String field;
+
+        final String value;
+
+        final Action action;
+
+        final int every;
+
+        final String reply;
+
+        final AtomicLong hits = new AtomicLong();
+
+        Rule(String id, String exact, String prefix, String field, String value, Action action, int every,
+                String reply) {
+            this.id = id;
+            this.exact = exact;
+            this.prefix = prefix;
+            this.field = field;
+            this.value = value;
+            this.action = action;
+            this.every = every;
+            this.reply = reply;
+        }
+
+        // counts a matched message, true if it is delivered to the WebView
+        boolean hit() {
+            long hit = hits.incrementAndGet();
+            return action == Action.SAMPLE && (hit - 1) % every == 0;
+        }
+
+        boolean matches(String msg) {
+            if (exact != null && !exact.equals(msg)) {
+                return false;
+            }
+            if (prefix != null && !msg.startsWith(prefix)) {
+                return false;
+            }
+            return field == null || hasField(msg);
+        }
+
+        private boolean hasField(String msg) {
+            int from = 0;
+            int index;
+            while ((index = msg.indexOf(field, from)) != -1) {
+                from = index + field.length();
+                int i = skipWhitespace(msg, from);
+                if (i < msg.length() && msg.charAt(i) == ':') {
+                    i = skipWhitespace(msg, i + 1);
+                    if (msg.startsWith(value, i)) {
+                        int end = i + value.length();
+                        // a string value ends with its quote, others with a delimiter
+                        if (value.charAt(value.length() - 1) == '"' || end == msg.length()
+                                || ",}] \t\r\n".indexOf(msg.charAt(end)) != -1) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static int skipWhitespace(String msg, int i) {
+            while (i < msg.length() && Character.isWhitespace(msg.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.becvert.cordova;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Allowed origins: exact origins are looked up in a hash set, origins with a
+// '*' wildcard (e.g. "https://*.example.com") are compiled once into a pattern
+// where '*' matches anything but a '/'.
+public class OriginMatcher {
+
+    private final Set<String> origins = new HashSet<String>();
+
+    private final Pattern pattern;
+
+    public OriginMatcher(List<String> origins) {
+        List<String> wildcards = new ArrayList<String>();
+        for (String origin : origins) {
+            if (origin != null && origin.indexOf('*') != -1) {
+                wildcards.add(origin);
+            } else {
+                this.origins.add(origin);
+            }
+        }
+        this.pattern = wildcards.isEmpty() ? null : compile(wildcards);
+    }
+
+    public boolean matches(String origin) {
+        if (origins.contains(origin)) {
+            return true;
+        }
+        return origin != null && pattern != null && pattern.matcher(origin).matches();
+    }
+
+    private static Pattern compile(List<String> wildcards) {
+        StringBuilder regex = new StringBuilder();
+        for (String wildcard : wildcards) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            String[] parts = wildcard.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append("[^/]*");
+                }
+                if (parts[i].length() > 0) {
+                    regex.append(Pattern.quote(parts[i]));
+                }
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+}
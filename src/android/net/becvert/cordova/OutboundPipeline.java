@@ -0,0 +1,667 @@
+package net.becvert.cordova;
+
+import android.util.Base64;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.util.Charsetfunctions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Each connection has its own outbound queue and is always written by the same
+// lane thread, so the messages of a connection keep their order. A lane only
+// holds the connections that have pending messages.
+//
+// With backpressure enabled, a lane stops writing a connection once the socket
+// has highWaterMark frames buffered, and the messages wait in the connection
+// queue until the socket drains below lowWaterMark. The policy decides what
+// happens to new messages when highWaterMark messages are already waiting.
+// The block policy only holds the sends to a single connection, for at most
+// blockTimeout ms since they hold the WebView bridge, and then drops the
+// oldest message: the messages sent to several connections and the native
+// replies drop it right away, so that a congested client doesn't hold the
+// others or a decoder thread. The close policy lets the lane of the
+// connection drop its queue.
+//
+// A conflated message waits in the connection queue while the socket has
+// buffered data, and is replaced by any newer message sent with the same key.
+//
+// A file is written a few fragments at a time: the connection is held while
+// its socket buffers FILE_WINDOW frames, so that the lane serves the other
+// connections and the file is never loaded in memory. The messages sent after
+// the file wait for its last fragment.
+//
+// The messages written to the connection of a session are recorded by the
+// session, see SessionStore. The replayed messages are never dropped.
+public class OutboundPipeline {
+
+    public enum Policy {
+        DROP_OLDEST, DROP_NEWEST, CLOSE, BLOCK;
+
+        public static Policy fromString(String policy) {
+            if ("dropNewest".equals(policy)) {
+                return DROP_NEWEST;
+            } else if ("close".equals(policy)) {
+                return CLOSE;
+            } else if ("block".equals(policy)) {
+                return BLOCK;
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    public interface Listener {
+
+        void onBackpressure(Connection conn, int bufferedFrames);
+
+        void onDrain(Connection conn, int bufferedFrames);
+    }
+
+    private static final int DRAIN_CHECK_INTERVAL = 10;
+
+    private static final int FILE_WINDOW = 8;
+
+    private final Lane[] lanes;
+
+    private final ServerMetrics metrics;
+
+    private final Listener listener;
+
+    private int highWaterMark = 0;
+
+    private int lowWaterMark = 0;
+
+    private Policy policy = Policy.DROP_OLDEST;
+
+    private long blockTimeout = 0;
+
+    // guarded by this
+    private ScheduledExecutorService drainMonitor;
+
+    // guarded by this
+    private boolean shutdown = false;
+
+    // connections held until their socket drains
+    private final Set<Connection> waiting = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+
+    public OutboundPipeline(int laneCount, ServerMetrics metrics, Listener listener) {
+        this.metrics = metrics;
+        this.listener = listener;
+        lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+    // watermarks are numbers of frames buffered by the socket
+    // blockTimeout: ms a send waits with the block policy
+    public void setBackpressure(int highWaterMark, int lowWaterMark, Policy policy, long blockTimeout) {
+        this.highWaterMark = Math.max(1, highWaterMark);
+        this.lowWaterMark = Math.max(0, Math.min(lowWaterMark, this.highWaterMark - 1));
+        this.policy = policy;
+        this.blockTimeout = Math.max(0, blockTimeout);
+    }
+
+    public synchronized void start() {
+        for (Lane lane : lanes) {
+            lane.start();
+        }
+        if (highWaterMark > 0) {
+            startDrainMonitor();
+        }
+    }
+
+    // started on the first conflated message when backpressure is disabled
+    private synchronized void startDrainMonitor() {
+        if (drainMonitor == null && !shutdown) {
+            drainMonitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WebSocketServer-drain");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            drainMonitor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkDrained();
+                }
+            }, DRAIN_CHECK_INTERVAL, DRAIN_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        for (Lane lane : lanes) {
+            lane.interrupt();
+        }
+        if (drainMonitor != null) {
+            drainMonitor.shutdownNow();
+        }
+        waiting.clear();
+    }
+
+    // text frame
+    public void send(Connection conn, String msg) {
+        enqueue(conn, msg, true);
+    }
+
+    // text frame sent by a decoder thread, never blocks
+    public void reply(Connection conn, String msg) {
+        enqueue(conn, msg, false);
+    }
+
+    // binary frame, decoded by the lane
+    public void sendBase64(Connection conn, String base64) {
+        enqueue(conn, new Base64Message(base64), true);
+    }
+
+    // same message for several connections, encoded once, never blocks
+    public void send(Connection conn, SharedMessage msg) {
+        enqueue(conn, msg, false);
+    }
+
+    // replaces the queued message with the same key, if any
+    public void sendConflated(Connection conn, String key, String msg, boolean is_binary) {
+        Object payload = is_binary ? new Base64Message(msg) : msg;
+
+        ConflatedMessage queued = conn.conflated.get(key);
+        if (queued != null && queued.replace(payload)) {
+            metrics.messagesConflated.incrementAndGet();
+            return;
+        }
+
+        ConflatedMessage conflated = new ConflatedMessage(key, payload);
+        conn.conflated.put(key, conflated);
+        enqueue(conn, conflated, true);
+    }
+
+    // binary message streamed from a file
+    public void sendFile(Connection conn, FileStream file) {
+        enqueue(conn, file, true);
+    }
+
+    // messages missed by a resumed session, recorded already
+    public void replay(Connection conn, List<Object> messages) {
+        for (Object payload : messages) {
+            enqueue(conn, new ReplayedMessage(payload), false);
+        }
+    }
+
+    public void close(Connection conn, int code, String reason) {
+        enqueue(conn, new CloseRequest(code, reason), false);
+    }
+
+    // releases the files queued for a closed connection
+    public void closed(Connection conn) {
+        for (Object item : conn.outbound) {
+            if (item instanceof FileStream) {
+                ((FileStream) item).fail("Connection closed");
+            }
+        }
+    }
+
+    // mayBlock: sent to a single connection, by the WebView
+    private void enqueue(Connection conn, Object item, boolean mayBlock) {
+        if (conn.congested && !conn.overflowed && isDroppable(item) && conn.pending.get() >= highWaterMark) {
+            if (!applyPolicy(conn, mayBlock)) {
+                return;
+            }
+        }
+
+        conn.pending.incrementAndGet();
+        conn.outbound.offer(item);
+        // an overflowed connection is dropped by its lane, held or not
+        if (!conn.held || conn.overflowed) {
+            schedule(conn);
+        }
+    }
+
+    // returns whether the new message can be queued
+    private boolean applyPolicy(Connection conn, boolean mayBlock) {
+        switch (policy) {
+        case DROP_NEWEST:
+            PluginLog.d("send: backpressure, message dropped");
+            metrics.messagesDropped.incrementAndGet();
+            return false;
+
+        case CLOSE:
+            PluginLog.d("send: backpressure, closing websocket");
+            metrics.messagesDropped.incrementAndGet();
+            // the lane may be writing the queue, it drops it, see overflow()
+            conn.overflowed = true;
+            schedule(conn);
+            return false;
+
+        case BLOCK:
+            if (!mayBlock) {
+                dropOldest(conn);
+                return true;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+            try {
+                while (conn.congested && conn.pending.get() >= highWaterMark && conn.webSocket.isOpen()) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        // the client still doesn't read, don't hold the WebView any longer
+                        PluginLog.d("send: backpressure, block timeout");
+                        dropOldest(conn);
+                        return true;
+                    }
+                    Thread.sleep(DRAIN_CHECK_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return conn.webSocket.isOpen();
+
+        default:
+            dropOldest(conn);
+            return true;
+        }
+    }
+
+    // close requests, files and replayed messages are never dropped
+    private void dropOldest(Connection conn) {
+        Iterator<Object> iterator = conn.outbound.iterator();
+        while (iterator.hasNext()) {
+            Object item = iterator.next();
+            if (isDroppable(item)) {
+                iterator.remove();
+                if (item instanceof ConflatedMessage) {
+                    // the next message with this key is queued again
+                    ((ConflatedMessage) item).take(conn);
+                }
+                conn.pending.decrementAndGet();
+                metrics.messagesDropped.incrementAndGet();
+                PluginLog.d("send: backpressure, oldest message dropped");
+                break;
+            }
+        }
+    }
+
+    // on the lane of a connection closed by the close policy
+    private void overflow(Connection conn) {
+        Object item;
+        while ((item = conn.outbound.poll()) != null) {
+            conn.pending.decrementAndGet();
+            if (item instanceof FileStream) {
+                ((FileStream) item).fail("Connection closed");
+            } else if (isDroppable(item)) {
+                metrics.messagesDropped.incrementAndGet();
+            }
+        }
+        conn.conflated.clear();
+        conn.webSocket.close(CloseFrame.TRY_AGAIN_LATER, "Backpressure");
+    }
+
+    private static boolean isDroppable(Object item) {
+        return !(item instanceof CloseRequest) && !(item instanceof FileStream) && !(item instanceof ReplayedMessage);
+    }
+
+    private void schedule(Connection conn) {
+        if (conn.scheduled.compareAndSet(false, true)) {
+            lanes[(conn.uuid.hashCode() & 0x7fffffff) % lanes.length].ready.offer(conn);
+        }
+    }
+
+    private void drain(Connection conn) {
+        Object item;
+        while ((item = conn.outbound.peek()) != null) {
+            if (conn.overflowed) {
+                overflow(conn);
+                return;
+            }
+            if (highWaterMark > 0 && !(item instanceof CloseRequest)) {
+                int buffered = bufferedFrames(conn.webSocket);
+                if (buffered >= highWaterMark) {
+                    // wait for the drain monitor to resume this connection
+                    if (!conn.congested) {
+                        conn.congested = true;
+                        hold(conn);
+                        listener.onBackpressure(conn, buffered);
+                    }
+                    return;
+                }
+            }
+            if (item instanceof ConflatedMessage && conn.webSocket.hasBufferedData()) {
+                // newer values replace it meanwhile
+                startDrainMonitor();
+                hold(conn);
+                return;
+            }
+            if (item instanceof FileStream && !writeFile(conn, (FileStream) item)) {
+                // resumed by the drain monitor once the socket is empty
+                startDrainMonitor();
+                hold(conn);
+                return;
+            }
+
+            // the peeked message may have been dropped by the policy meanwhile
+            item = conn.outbound.poll();
+            if (item == null) {
+                return;
+            }
+            conn.pending.decrementAndGet();
+            try {
+                write(conn, item);
+            } catch (WebsocketNotConnectedException e) {
+                PluginLog.d("send: websocket not open");
+            } catch (RuntimeException e) {
+                PluginLog.e(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void hold(Connection conn) {
+        conn.held = true;
+        waiting.add(conn);
+    }
+
+    private void checkDrained() {
+        for (Connection conn : waiting) {
+            if (!conn.webSocket.isOpen()) {
+                waiting.remove(conn);
+                conn.congested = false;
+                conn.held = false;
+                // releases a file being sent
+                schedule(conn);
+                continue;
+            }
+            int buffered = bufferedFrames(conn.webSocket);
+            if (conn.congested ? buffered <= lowWaterMark : buffered == 0) {
+                waiting.remove(conn);
+                conn.held = false;
+                if (conn.congested) {
+                    conn.congested = false;
+                    listener.onDrain(conn, buffered);
+                }
+                schedule(conn);
+            }
+        }
+    }
+
+    // writes fragments until the window is full, returns whether the file is finished
+    private boolean writeFile(Connection conn, FileStream file) {
+        WebSocket webSocket = conn.webSocket;
+        while (bufferedFrames(webSocket) < FILE_WINDOW) {
+            if (!webSocket.isOpen()) {
+                file.fail("Connection closed");
+                return true;
+            }
+            ByteBuffer chunk;
+            try {
+                chunk = file.nextChunk();
+            } catch (IOException e) {
+                file.fail(e.getMessage());
+                if (file.getBytesSent() > 0) {
+                    // the fragments already sent can't be completed
+                    webSocket.close(CloseFrame.UNEXPECTED_CONDITION, "File error");
+                }
+                return true;
+            }
+            if (chunk == null) {
+                // failed meanwhile
+                return true;
+            }
+            int length = chunk.remaining();
+            boolean last = file.isLastChunk(chunk);
+            try {
+                webSocket.sendFragmentedFrame(Opcode.BINARY, chunk, last);
+            } catch (WebsocketNotConnectedException e) {
+                file.fail("Connection closed");
+                return true;
+            }
+            file.sent(length);
+            if (last) {
+                metrics.messageOut(conn, file.getSize());
+                SessionStore.Session session = conn.session;
+                if (session != null) {
+                    session.skip(conn);
+                }
+                file.complete();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static int bufferedFrames(WebSocket webSocket) {
+        if (webSocket instanceof WebSocketImpl) {
+            return ((WebSocketImpl) webSocket).outQueue.size();
+        }
+        return webSocket.hasBufferedData() ? 1 : 0;
+    }
+
+    private void write(Connection conn, Object item) {
+        WebSocket webSocket = conn.webSocket;
+
+        if (item instanceof CloseRequest) {
+            CloseRequest close = (CloseRequest) item;
+            if (close.code == -1) {
+                webSocket.close(CloseFrame.NORMAL);
+            } else {
+                webSocket.close(close.code, close.reason);
+            }
+            return;
+        }
+
+        if (item instanceof ConflatedMessage) {
+            item = ((ConflatedMessage) item).take(conn);
+        }
+
+        if (!webSocket.isOpen()) {
+            PluginLog.d("send: websocket not open");
+            return;
+        }
+
+        List<Framedata> frames = null;
+
+        // recorded by the session: a String or a byte[]
+        Object payload = null;
+
+        if (item instanceof String) {
+            // send text frame (websocket opcode 1)
+            frames = webSocket.getDraft().createFrames((String) item, false);
+            payload = item;
+
+        } else if (item instanceof Base64Message) {
+            // send binary frame (websocket opcode 2)
+            try {
+                byte[] binary = Base64.decode(((Base64Message) item).base64, Base64.DEFAULT);
+                frames = webSocket.getDraft().createFrames(ByteBuffer.wrap(binary), false);
+                payload = binary;
+
+            } catch (IllegalArgumentException e) {
+                PluginLog.d("send: wrong binary format");
+            }
+
+        } else if (item instanceof SharedMessage) {
+            frames = ((SharedMessage) item).frames();
+            payload = ((SharedMessage) item).payload();
+
+        } else if (item instanceof ReplayedMessage) {
+            Object replayed = ((ReplayedMessage) item).payload;
+            if (replayed instanceof String) {
+                frames = webSocket.getDraft().createFrames((String) replayed, false);
+            } else {
+                frames = webSocket.getDraft().createFrames(ByteBuffer.wrap((byte[]) replayed), false);
+            }
+        }
+
+        if (frames != null) {
+            // payload sizes before the extensions encode them
+            long bytes = 0;
+            for (Framedata frame : frames) {
+                bytes += frame.getPayloadData().remaining();
+            }
+            SessionStore.Session session = conn.session;
+            if (session != null && payload != null) {
+                session.record(conn, payload, bytes);
+            }
+            webSocket.sendFrame(frames);
+            metrics.messageOut(conn, bytes);
+        }
+    }
+
+    private class Lane extends Thread {
+
+        final BlockingQueue<Connection> ready = new LinkedBlockingQueue<Connection>();
+
+        Lane(int index) {
+            super("WebSocketServer-sender-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    Connection conn = ready.take();
+                    // reset before draining, a concurrent enqueue schedules the connection again
+                    conn.scheduled.set(false);
+                    drain(conn);
+                }
+            } catch (InterruptedException e) {
+                // shutdown
+            }
+        }
+    }
+
+    private static class Base64Message {
+
+        final String base64;
+
+        Base64Message(String base64) {
+            this.base64 = base64;
+        }
+    }
+
+    static class ConflatedMessage {
+
+        private final String key;
+
+        // guarded by this
+        private Object payload;
+
+        // guarded by this
+        private boolean taken = false;
+
+        ConflatedMessage(String key, Object payload) {
+            this.key = key;
+            this.payload = payload;
+        }
+
+        // false once the message left the queue
+        synchronized boolean replace(Object payload) {
+            if (taken) {
+                return false;
+            }
+            this.payload = payload;
+            return true;
+        }
+
+        Object take(Connection conn) {
+            Object latest;
+            synchronized (this) {
+                taken = true;
+                latest = payload;
+            }
+            conn.conflated.remove(key, this);
+            return latest;
+        }
+    }
+
+    private static class ReplayedMessage {
+
+        final Object payload;
+
+        ReplayedMessage(Object payload) {
+            this.payload = payload;
+        }
+    }
+
+    private static class CloseRequest {
+
+        final int code;
+
+        final String reason;
+
+        CloseRequest(int code, String reason) {
+            this.code = code;
+            this.reason = reason;
+        }
+    }
+
+    // The payload is encoded or decoded once, each connection gets its own
+    // frames around a duplicate of it: Java-WebSocket moves the position of
+    // the payload buffer while writing a frame, and the compression extension
+    // replaces the payload of the frame.
+    public static class SharedMessage {
+
+        private final String msg;
+
+        private final boolean is_binary;
+
+        // guarded by this
+        private ByteBuffer data;
+
+        // guarded by this
+        private boolean invalid = false;
+
+        public SharedMessage(String msg, boolean is_binary) {
+            this.msg = msg;
+            this.is_binary = is_binary;
+        }
+
+        // the text, or the decoded binary once framed
+        synchronized Object payload() {
+            if (!is_binary) {
+                return msg;
+            }
+            return data != null ? data.array() : null;
+        }
+
+        synchronized List<Framedata> frames() {
+            if (data == null && !invalid) {
+                if (!is_binary) {
+                    data = ByteBuffer.wrap(Charsetfunctions.utf8Bytes(msg));
+                } else {
+                    try {
+                        data = ByteBuffer.wrap(Base64.decode(msg, Base64.DEFAULT));
+                    } catch (IllegalArgumentException e) {
+                        PluginLog.d("broadcast: wrong binary format");
+                        invalid = true;
+                    }
+                }
+            }
+            if (invalid) {
+                return null;
+            }
+            DataFrame frame = is_binary ? new BinaryFrame() : new TextFrame();
+            frame.setPayload(data.duplicate());
+            return Collections.<Framedata>singletonList(frame);
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package net.becvert.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Holds the events while the app is paused: the WebView barely runs its
+// JavaScript then, and the results would pile up in the bridge queue until
+// they are delivered as a burst on resume. At most maxEvents are held, then
+// the policy drops the oldest message or the new one. With 'conflate' only the
+// latest message of each connection is held. onOpen and onClose events are
+// never dropped, so that the JS knows the same connections as the server, and
+// neither are onMessageChunk events: a streamed message would miss a part.
+// On resume the held events are delivered in batches of batchSize, and the
+// events received meanwhile are held until then to keep their order.
+public class PauseBuffer {
+
+    public static final int DEFAULT_MAX_EVENTS = 10000;
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    public enum Policy {
+        DROP_OLDEST, DROP_NEWEST, CONFLATE;
+
+        public static Policy fromString(String policy) {
+            if ("dropNewest".equals(policy)) {
+                return DROP_NEWEST;
+            } else if ("conflate".equals(policy)) {
+                return CONFLATE;
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    private final CallbackContext callbackContext;
+
+    private final Histogram deliveryTime;
+
+    private final int maxEvents;
+
+    private final Policy policy;
+
+    private final int batchSize;
+
+    // guarded by this
+    private final ArrayDeque<Event> events = new ArrayDeque<Event>();
+
+    // latest held message of each connection, with the conflate policy
+    // guarded by this
+    private final Map<Object, Event> latest = new HashMap<Object, Event>();
+
+    // guarded by this
+    private boolean paused = false;
+
+    // guarded by this
+    private boolean resuming = false;
+
+    // guarded by this
+    private boolean draining = false;
+
+    // guarded by this
+    private long dropped = 0;
+
+    // guarded by this
+    private long conflated = 0;
+
+    public PauseBuffer(CallbackContext callbackContext, Histogram deliveryTime, int maxEvents, Policy policy,
+            int batchSize) {
+        this.callbackContext = callbackContext;
+        this.deliveryTime = deliveryTime;
+        this.maxEvents = maxEvents > 0 ? maxEvents : DEFAULT_MAX_EVENTS;
+        this.policy = policy;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    public synchronized void pause() {
+        paused = true;
+        resuming = false;
+    }
+
+    // delivers the held events, on the calling thread
+    public void resume() {
+        synchronized (this) {
+            if (!paused) {
+                return;
+            }
+            resuming = true;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            JSONArray batch = new JSONArray();
+            List<PluginResult> parts = new ArrayList<PluginResult>();
+            long[] receptionTimes;
+            synchronized (this) {
+                if (!resuming || events.isEmpty()) {
+                    if (resuming) {
+                        paused = false;
+                        resuming = false;
+                    }
+                    draining = false;
+                    return;
+                }
+                int size = Math.min(batchSize, events.size());
+                receptionTimes = new long[size];
+                for (int i = 0; i < size; i++) {
+                    Event event = events.poll();
+                    if (event.key != null) {
+                        latest.remove(event.key);
+                    }
+                    receptionTimes[i] = event.receivedAt;
+                    if (event.binary != null) {
+                        try {
+                            event.status.put("part", parts.size() + 1);
+                        } catch (JSONException e) {
+                            PluginLog.e(e.getMessage(), e);
+                            continue;
+                        }
+                        parts.add(new PluginResult(PluginResult.Status.OK, event.binary));
+                    }
+                    batch.put(event.status);
+                }
+            }
+
+            try {
+                callbackContext.sendPluginResult(EventBatcher.batchResult(batch, parts));
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+            }
+            long now = System.nanoTime();
+            for (long receivedAt : receptionTimes) {
+                if (receivedAt != 0) {
+                    deliveryTime.record((now - receivedAt) / 1000);
+                }
+            }
+        }
+    }
+
+    // false if the event can be delivered now
+    public synchronized boolean offer(JSONObject status, byte[] binary, long receivedAt) {
+        if (!paused) {
+            return false;
+        }
+
+        Object key = null;
+        if ("onMessage".equals(status.optString("action"))) {
+            key = status.opt("uuid");
+            if (policy == Policy.CONFLATE) {
+                Event previous = latest.get(key);
+                if (previous != null) {
+                    previous.status = status;
+                    previous.binary = binary;
+                    previous.receivedAt = receivedAt;
+                    conflated++;
+                    return true;
+                }
+            }
+        }
+        boolean droppable = isDroppable(status);
+
+        if (events.size() >= maxEvents) {
+            if (policy == Policy.DROP_NEWEST && droppable) {
+                dropped++;
+                return true;
+            }
+            if (!dropOldest() && droppable) {
+                // only events that are never dropped are held
+                dropped++;
+                return true;
+            }
+        }
+
+        Event event = new Event(policy == Policy.CONFLATE ? key : null, status, binary, receivedAt);
+        events.offer(event);
+        if (event.key != null) {
+            latest.put(event.key, event);
+        }
+        return true;
+    }
+
+    public synchronized JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("paused", paused);
+        json.put("events", events.size());
+        json.put("dropped", dropped);
+        json.put("conflated", conflated);
+        return json;
+    }
+
+    private boolean dropOldest() {
+        Iterator<Event> iterator = events.iterator();
+        while (iterator.hasNext()) {
+            Event event = iterator.next();
+            if (isDroppable(event.status)) {
+                iterator.remove();
+                if (event.key != null) {
+                    latest.remove(event.key);
+                }
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDroppable(JSONObject status) {
+        String action = status.optString("action");
+        return !"onOpen".equals(action) && !"onClose".equals(action) && !"onMessageChunk".equals(action);
+    }
+
+    private static class Event {
+
+        final Object key;
+
+        JSONObject status;
+
+        byte[] binary;
+
+        long receivedAt;
+
+        Event(Object key, JSONObject status, byte[] binary, long receivedAt) {
+            this.key = key;
+            this.status = status;
+            this.binary = binary;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+}
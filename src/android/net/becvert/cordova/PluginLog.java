@@ -0,0 +1,80 @@
+package net.becvert.cordova;
+
+import android.util.Log;
+
+// Logging for the plugin, filtered by the level given to setLogLevel, shared
+// by all the servers.
+// The level is checked before any string is built: callers pass the parts of
+// the message separately, they are only concatenated when the level is enabled.
+public final class PluginLog {
+
+    public static final int NONE = Log.ASSERT + 1;
+
+    private static volatile int level = Log.WARN;
+
+    private PluginLog() {
+    }
+
+    public static void setLevel(String name) {
+        if ("verbose".equals(name)) {
+            level = Log.VERBOSE;
+        } else if ("debug".equals(name)) {
+            level = Log.DEBUG;
+        } else if ("info".equals(name)) {
+            level = Log.INFO;
+        } else if ("error".equals(name)) {
+            level = Log.ERROR;
+        } else if ("none".equals(name)) {
+            level = NONE;
+        } else {
+            level = Log.WARN;
+        }
+    }
+
+    public static boolean isLoggable(int priority) {
+        return priority >= level;
+    }
+
+    public static void v(String msg) {
+        if (Log.VERBOSE >= level) {
+            Log.v(WebSocketServerPlugin.TAG, msg);
+        }
+    }
+
+    public static void d(String msg) {
+        if (Log.DEBUG >= level) {
+            Log.d(WebSocketServerPlugin.TAG, msg);
+        }
+    }
+
+    public static void d(String msg, Object arg) {
+        if (Log.DEBUG >= level) {
+            Log.d(WebSocketServerPlugin.TAG, msg + arg);
+        }
+    }
+
+    public static void w(String msg) {
+        if (Log.WARN >= level) {
+            Log.w(WebSocketServerPlugin.TAG, msg);
+        }
+    }
+
+    public static void w(String msg, Object arg) {
+        if (Log.WARN >= level) {
+            Log.w(WebSocketServerPlugin.TAG, msg + arg);
+        }
+    }
+
+    public static void e(String msg) {
+        if (Log.ERROR >= level) {
+            Log.e(WebSocketServerPlugin.TAG, msg);
+        }
+    }
+
+    public static void e(String msg, Throwable tr) {
+        if (Log.ERROR >= level) {
+            Log.e(WebSocketServerPlugin.TAG, msg, tr);
+        }
+    }
+
+}
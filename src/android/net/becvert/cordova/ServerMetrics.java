@@ -0,0 +1,185 @@
+package net.becvert.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// server wide counters, updated on the hot paths without locking or allocating
+public class ServerMetrics {
+
+    final AtomicLong connectionsOpened = new AtomicLong();
+
+    final AtomicLong connectionsClosed = new AtomicLong();
+
+    final AtomicLong messagesIn = new AtomicLong();
+
+    final AtomicLong bytesIn = new AtomicLong();
+
+    final AtomicLong messagesOut = new AtomicLong();
+
+    final AtomicLong bytesOut = new AtomicLong();
+
+    final AtomicLong messagesDropped = new AtomicLong();
+
+    // replaced by a newer message with the same key before being sent
+    final AtomicLong messagesConflated = new AtomicLong();
+
+    final AtomicLong callbackErrors = new AtomicLong();
+
+    // closed by the heartbeat
+    final AtomicLong connectionsTimedOut = new AtomicLong();
+
+    // refused for a missing or invalid token
+    final AtomicLong handshakesUnauthorized = new AtomicLong();
+
+    // {"$subscribe"} messages over a topic limit
+    final AtomicLong subscriptionsRefused = new AtomicLong();
+
+    // from the TCP accept to onOpen, in microseconds
+    final Histogram handshakeTime = new Histogram();
+
+    // handshakeTime of the wss:// connections, by kind of TLS handshake
+    final Histogram fullTlsHandshakeTime = new Histogram();
+
+    final Histogram resumedTlsHandshakeTime = new Histogram();
+
+    // from the message reception to its delivery to the WebView, in microseconds
+    final Histogram deliveryTime = new Histogram();
+
+    // ping to pong, in microseconds
+    final Histogram rtt = new Histogram();
+
+    // decoder threads, a connection is decoded by the same thread for its whole life
+    private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            Worker worker = new Worker(Thread.currentThread().getName());
+            workers.add(worker);
+            return worker;
+        }
+    };
+
+    // called from onOpen, on the decoder thread of the connection
+    public void connectionOpened(Connection conn) {
+        connectionsOpened.incrementAndGet();
+        conn.worker = currentWorker.get();
+        conn.worker.connections.incrementAndGet();
+    }
+
+    public void connectionClosed(Connection conn) {
+        connectionsClosed.incrementAndGet();
+        if (conn.worker != null) {
+            conn.worker.connections.decrementAndGet();
+        }
+    }
+
+    public void messageIn(Connection conn, long bytes) {
+        chunkIn(conn, bytes, true);
+    }
+
+    // a streamed message is counted with its last chunk
+    public void chunkIn(Connection conn, long bytes, boolean last) {
+        bytesIn.addAndGet(bytes);
+        conn.bytesIn.addAndGet(bytes);
+        if (last) {
+            messagesIn.incrementAndGet();
+            conn.messagesIn.incrementAndGet();
+        }
+        if (conn.worker != null) {
+            conn.worker.bytesIn.addAndGet(bytes);
+            if (last) {
+                conn.worker.messagesIn.incrementAndGet();
+            }
+        }
+    }
+
+    public void messageOut(Connection conn, long bytes) {
+        messagesOut.incrementAndGet();
+        bytesOut.addAndGet(bytes);
+        conn.messagesOut.incrementAndGet();
+        conn.bytesOut.addAndGet(bytes);
+    }
+
+    public JSONObject tlsToJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("fullHandshakes", fullTlsHandshakeTime.getCount());
+        json.put("resumedHandshakes", resumedTlsHandshakeTime.getCount());
+        json.put("fullHandshakeTime", fullTlsHandshakeTime.toJSON());
+        json.put("resumedHandshakeTime", resumedTlsHandshakeTime.toJSON());
+        return json;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("connectionsOpened", connectionsOpened.get());
+        json.put("connectionsClosed", connectionsClosed.get());
+        json.put("messagesIn", messagesIn.get());
+        json.put("bytesIn", bytesIn.get());
+        json.put("messagesOut", messagesOut.get());
+        json.put("bytesOut", bytesOut.get());
+        json.put("messagesDropped", messagesDropped.get());
+        json.put("messagesConflated", messagesConflated.get());
+        json.put("callbackErrors", callbackErrors.get());
+        json.put("connectionsTimedOut", connectionsTimedOut.get());
+        json.put("handshakesUnauthorized", handshakesUnauthorized.get());
+        json.put("subscriptionsRefused", subscriptionsRefused.get());
+        json.put("handshakeTime", handshakeTime.toJSON());
+        json.put("deliveryTime", deliveryTime.toJSON());
+        json.put("rtt", rtt.toJSON());
+
+        JSONArray workersJSON = new JSONArray();
+        for (Worker worker : workers) {
+            JSONObject workerJSON = new JSONObject();
+            workerJSON.put("name", worker.name);
+            workerJSON.put("connections", worker.connections.get());
+            workerJSON.put("messagesIn", worker.messagesIn.get());
+            workerJSON.put("bytesIn", worker.bytesIn.get());
+            workersJSON.put(workerJSON);
+        }
+        json.put("workers", workersJSON);
+        return json;
+    }
+
+    // number of bytes of the UTF-8 encoding, without encoding
+    public static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c)) {
+                    // 4 bytes for the surrogate pair
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public static class Worker {
+
+        final String name;
+
+        final AtomicLong connections = new AtomicLong();
+
+        final AtomicLong messagesIn = new AtomicLong();
+
+        final AtomicLong bytesIn = new AtomicLong();
+
+        Worker(String name) {
+            this.name = name;
+        }
+    }
+
+}
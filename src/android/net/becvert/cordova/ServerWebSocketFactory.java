@@ -0,0 +1,90 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketServerFactory;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.interfaces.ISSLChannel;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+// Wraps the factory of the server. Every new WebSocket gets a Handshake as
+// attachment, with the time of its TCP accept, until the connection registry
+// replaces it in onOpen.
+// The send buffer size is applied to the accepted channels, the receive
+// buffer size is inherited from the listening socket, see WebSocketServerImpl.
+// With TLS, the wrapped factory is an SSLParametersWebSocketServerFactory and
+// its channels are wrapped in a TlsChannel.
+public class ServerWebSocketFactory implements WebSocketServerFactory {
+
+    private WebSocketServerFactory factory;
+
+    private int sendBufferSize = 0;
+
+    public ServerWebSocketFactory(WebSocketServerFactory factory) {
+        this.factory = factory;
+    }
+
+    // before the server starts
+    public void setFactory(WebSocketServerFactory factory) {
+        this.factory = factory;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter a, Draft d) {
+        WebSocketImpl webSocket = factory.createWebSocket(a, d);
+        webSocket.setAttachment(new Handshake(System.nanoTime(), System.currentTimeMillis()));
+        return webSocket;
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter a, List<Draft> drafts) {
+        WebSocketImpl webSocket = factory.createWebSocket(a, drafts);
+        webSocket.setAttachment(new Handshake(System.nanoTime(), System.currentTimeMillis()));
+        return webSocket;
+    }
+
+    @Override
+    public ByteChannel wrapChannel(SocketChannel channel, SelectionKey key) throws IOException {
+        if (sendBufferSize > 0) {
+            channel.socket().setSendBufferSize(sendBufferSize);
+        }
+        ByteChannel wrapped = factory.wrapChannel(channel, key);
+        if (wrapped instanceof ISSLChannel) {
+            return new TlsChannel(wrapped, (WebSocketImpl) key.attachment());
+        }
+        return wrapped;
+    }
+
+    @Override
+    public void close() {
+        factory.close();
+    }
+
+    // state of a connection from its TCP accept to onOpen
+    public static class Handshake {
+
+        final long acceptedAt;
+
+        // wall clock time, compared with the creation time of the TLS session
+        final long acceptedAtMillis;
+
+        // verified token claims, see TokenVerifier
+        JSONObject claims;
+
+        Handshake(long acceptedAt, long acceptedAtMillis) {
+            this.acceptedAt = acceptedAt;
+            this.acceptedAtMillis = acceptedAtMillis;
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+package net.becvert.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sessions of the clients that open their connection with a session token in
+// the query string. The messages written to the connection of a session are
+// numbered from 1 and the latest ones are kept, up to maxMessages and maxBytes.
+// A client reconnecting with the same token and the number of the last message
+// it received gets the messages it missed, replayed before any new message.
+// Otherwise, or when they are no longer kept, the session starts over from 1.
+// A session without connection expires after ttl ms; over maxSessions, the
+// session detached for the longest time is evicted.
+// The session token is a bearer secret: whoever presents it takes the session
+// over. With the auth option, a session also belongs to the 'sub' claim of
+// the token verified when it was created, the other subjects are refused.
+public class SessionStore {
+
+    public static final String DEFAULT_QUERY_PARAM = "session";
+
+    public static final String DEFAULT_SEQ_PARAM = "lastSeq";
+
+    public static final int DEFAULT_MAX_SESSIONS = 1000;
+
+    public static final int DEFAULT_MAX_MESSAGES = 1000;
+
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    public static final int DEFAULT_TTL = 60000;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    private final int maxSessions;
+
+    private final int maxMessages;
+
+    private final long maxBytes;
+
+    private final long ttl;
+
+    private final String queryParam;
+
+    private final String seqParam;
+
+    final AtomicLong resumed = new AtomicLong();
+
+    final AtomicLong restarted = new AtomicLong();
+
+    final AtomicLong replayed = new AtomicLong();
+
+    final AtomicLong expired = new AtomicLong();
+
+    final AtomicLong refused = new AtomicLong();
+
+    public SessionStore(int maxSessions, int maxMessages, int maxBytes, int ttl, String queryParam, String seqParam) {
+        this.maxSessions = maxSessions > 0 ? maxSessions : DEFAULT_MAX_SESSIONS;
+        this.maxMessages = maxMessages > 0 ? maxMessages : DEFAULT_MAX_MESSAGES;
+        this.maxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+        this.ttl = (ttl > 0 ? ttl : DEFAULT_TTL) * 1000000L;
+        this.queryParam = queryParam != null ? queryParam : DEFAULT_QUERY_PARAM;
+        this.seqParam = seqParam != null ? seqParam : DEFAULT_SEQ_PARAM;
+    }
+
+    // null if the client has no session token, its subject doesn't own the
+    // session, or no session can be created
+    public Resumption open(String resource, Connection conn) {
+        String token = TokenVerifier.queryParameter(resource, queryParam);
+        if (token == null || token.length() == 0) {
+            return null;
+        }
+        long lastSeq = -1;
+        String seq = TokenVerifier.queryParameter(resource, seqParam);
+        if (seq != null) {
+            try {
+                lastSeq = Long.parseLong(seq);
+            } catch (NumberFormatException e) {
+                // starts over
+            }
+        }
+
+        String subject = conn.claims != null ? conn.claims.optString("sub", null) : null;
+
+        long now = System.nanoTime();
+        Session session = sessions.get(token);
+        if (session == null || session.isExpired(now)) {
+            if (sessions.size() >= maxSessions && !evict(now)) {
+                PluginLog.w("session: too many sessions");
+                return null;
+            }
+            Session created = new Session(token, subject);
+            session = sessions.putIfAbsent(token, created);
+            if (session == null || session.isExpired(now) && sessions.replace(token, session, created)) {
+                session = created;
+            }
+        }
+
+        if (session.subject == null ? subject != null : !session.subject.equals(subject)) {
+            PluginLog.w("session: token of another subject: ", subject);
+            refused.incrementAndGet();
+            return null;
+        }
+
+        Resumption resumption = session.attach(conn, lastSeq);
+        if (resumption.messages != null) {
+            resumed.incrementAndGet();
+            replayed.addAndGet(resumption.messages.size());
+        } else {
+            restarted.incrementAndGet();
+        }
+        return resumption;
+    }
+
+    public void clear() {
+        sessions.clear();
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        evict(System.nanoTime());
+        JSONObject json = new JSONObject();
+        json.put("sessions", sessions.size());
+        json.put("resumed", resumed.get());
+        json.put("restarted", restarted.get());
+        json.put("replayed", replayed.get());
+        json.put("expired", expired.get());
+        json.put("refused", refused.get());
+        return json;
+    }
+
+    // removes the expired sessions, or the oldest detached one when full
+    private boolean evict(long now) {
+        Session oldest = null;
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (session.isExpired(now)) {
+                iterator.remove();
+                expired.incrementAndGet();
+            } else if (session.getDetachedAt() != 0
+                    && (oldest == null || session.getDetachedAt() - oldest.getDetachedAt() < 0)) {
+                oldest = session;
+            }
+        }
+        if (sessions.size() < maxSessions) {
+            return true;
+        }
+        if (oldest != null && sessions.remove(oldest.token, oldest)) {
+            expired.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    // result of a reconnection
+    public static class Resumption {
+
+        final Session session;
+
+        // missed messages (String or byte[]), null if the session starts over
+        final List<Object> messages;
+
+        // connection still attached to the session, if any
+        final Connection previous;
+
+        // number of the last message, replayed or not
+        final long seq;
+
+        Resumption(Session session, List<Object> messages, Connection previous, long seq) {
+            this.session = session;
+            this.messages = messages;
+            this.previous = previous;
+            this.seq = seq;
+        }
+    }
+
+    public class Session {
+
+        final String token;
+
+        // 'sub' claim of the token verified with the auth option, if any
+        final String subject;
+
+        // guarded by this
+        private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+        // number of the last message, guarded by this
+        private long seq = 0;
+
+        // guarded by this
+        private long bytes = 0;
+
+        // guarded by this
+        private Connection owner;
+
+        // guarded by this, 0 while attached
+        private long detachedAt = 0;
+
+        Session(String token, String subject) {
+            this.token = token;
+            this.subject = subject;
+        }
+
+        synchronized Resumption attach(Connection conn, long lastSeq) {
+            Connection previous = owner;
+            owner = conn;
+            detachedAt = 0;
+
+            long firstSeq = seq - entries.size() + 1;
+            if (lastSeq < 0 || lastSeq > seq || lastSeq < firstSeq - 1) {
+                // unknown or no longer kept
+                seq = 0;
+                bytes = 0;
+                entries.clear();
+                return new Resumption(this, null, previous, 0);
+            }
+            List<Object> messages = new ArrayList<Object>((int) (seq - lastSeq));
+            long entrySeq = firstSeq;
+            for (Entry entry : entries) {
+                if (entrySeq++ > lastSeq) {
+                    messages.add(entry.payload);
+                }
+            }
+            return new Resumption(this, messages, previous, seq);
+        }
+
+        synchronized void detach(Connection conn) {
+            if (owner == conn) {
+                owner = null;
+                detachedAt = System.nanoTime();
+            }
+        }
+
+        // a message written to the connection of the session
+        synchronized void record(Connection conn, Object payload, long size) {
+            if (owner != conn) {
+                return;
+            }
+            seq++;
+            entries.addLast(new Entry(payload, size));
+            bytes += size;
+            while (!entries.isEmpty() && (entries.size() > maxMessages || bytes > maxBytes)) {
+                bytes -= entries.removeFirst().size;
+            }
+        }
+
+        // a message that can't be replayed, such as a file
+        synchronized void skip(Connection conn) {
+            if (owner != conn) {
+                return;
+            }
+            seq++;
+            entries.clear();
+            bytes = 0;
+        }
+
+        synchronized long getDetachedAt() {
+            return detachedAt;
+        }
+
+        synchronized boolean isExpired(long now) {
+            return detachedAt != 0 && now - detachedAt > ttl;
+        }
+    }
+
+    private static class Entry {
+
+        final Object payload;
+
+        final long size;
+
+        Entry(Object payload, long size) {
+            this.payload = payload;
+            this.size = size;
+        }
+    }
+
+}
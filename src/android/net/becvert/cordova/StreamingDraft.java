@@ -0,0 +1,218 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.util.Charsetfunctions;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+// Draft_6455 delivering the messages larger than threshold bytes as chunks of
+// at most chunkSize bytes, as their frames arrive, instead of assembling them
+// in memory. The frames of the smaller messages are held until the message is
+// complete, or until it gets larger than threshold. Text chunks are decoded
+// incrementally, a character split between two chunks goes with the second.
+// Java-WebSocket still reads a single frame whole, it is only sliced.
+// One instance per connection, through copyInstance.
+public class StreamingDraft extends Draft_6455 {
+
+    public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    // implemented by the WebSocketServer
+    public interface Listener {
+
+        void onMessageChunk(WebSocket webSocket, String chunk, int seq, boolean last);
+
+        void onMessageChunk(WebSocket webSocket, ByteBuffer chunk, int seq, boolean last);
+    }
+
+    private final int threshold;
+
+    private final int chunkSize;
+
+    // opcode of the fragmented message being received, null if none
+    private Opcode opcode;
+
+    // frames held until the message is complete or larger than threshold
+    private final List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+
+    private long size = 0;
+
+    private boolean streaming = false;
+
+    private int seq = 0;
+
+    private CharsetDecoder decoder;
+
+    // bytes of a character split between two chunks
+    private ByteBuffer leftover;
+
+    public StreamingDraft(List<IExtension> extensions, List<IProtocol> protocols, int threshold, int chunkSize) {
+        super(extensions, protocols);
+        this.threshold = threshold > 0 ? threshold : DEFAULT_THRESHOLD;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    @Override
+    public Draft copyInstance() {
+        List<IExtension> extensions = new ArrayList<IExtension>();
+        for (IExtension extension : getKnownExtensions()) {
+            extensions.add(extension.copyInstance());
+        }
+        List<IProtocol> protocols = new ArrayList<IProtocol>();
+        for (IProtocol protocol : getKnownProtocols()) {
+            protocols.add(protocol.copyInstance());
+        }
+        return new StreamingDraft(extensions, protocols, threshold, chunkSize);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        clear();
+    }
+
+    @Override
+    public void processFrame(WebSocketImpl webSocketImpl, Framedata frame) throws InvalidDataException {
+        Opcode frameOpcode = frame.getOpcode();
+        if (frameOpcode == Opcode.TEXT || frameOpcode == Opcode.BINARY) {
+            if (opcode != null) {
+                throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR,
+                        "Previous continuous frame sequence not completed.");
+            }
+            if (frame.isFin() && frame.getPayloadData().remaining() <= threshold) {
+                super.processFrame(webSocketImpl, frame);
+                return;
+            }
+            opcode = frameOpcode;
+            if (opcode == Opcode.TEXT) {
+                decoder = Charset.forName("UTF-8").newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT);
+            }
+            receive(webSocketImpl, frame.getPayloadData(), frame.isFin());
+        } else if (frameOpcode == Opcode.CONTINUOUS && opcode != null) {
+            receive(webSocketImpl, frame.getPayloadData(), frame.isFin());
+        } else {
+            super.processFrame(webSocketImpl, frame);
+        }
+    }
+
+    private void receive(WebSocketImpl webSocketImpl, ByteBuffer payload, boolean fin) throws InvalidDataException {
+        if (!streaming) {
+            pending.add(payload);
+            size += payload.remaining();
+            if (size <= threshold) {
+                if (fin) {
+                    deliverWhole(webSocketImpl);
+                }
+                return;
+            }
+            streaming = true;
+            for (int i = 0; i < pending.size(); i++) {
+                deliverChunks(webSocketImpl, pending.get(i), fin && i == pending.size() - 1);
+            }
+            pending.clear();
+        } else {
+            deliverChunks(webSocketImpl, payload, fin);
+        }
+        if (fin) {
+            clear();
+        }
+    }
+
+    // a fragmented message smaller than threshold, as Draft_6455 would deliver it
+    private void deliverWhole(WebSocketImpl webSocketImpl) throws InvalidDataException {
+        ByteBuffer message = ByteBuffer.allocate((int) size);
+        for (ByteBuffer payload : pending) {
+            message.put(payload);
+        }
+        message.flip();
+        boolean text = opcode == Opcode.TEXT;
+        clear();
+        try {
+            if (text) {
+                webSocketImpl.getWebSocketListener().onWebsocketMessage(webSocketImpl,
+                        Charsetfunctions.stringUtf8(message));
+            } else {
+                webSocketImpl.getWebSocketListener().onWebsocketMessage(webSocketImpl, message);
+            }
+        } catch (RuntimeException e) {
+            webSocketImpl.getWebSocketListener().onWebsocketError(webSocketImpl, e);
+        }
+    }
+
+    private void deliverChunks(WebSocketImpl webSocketImpl, ByteBuffer payload, boolean fin)
+            throws InvalidDataException {
+        Listener listener = (Listener) webSocketImpl.getWebSocketListener();
+        do {
+            int length = Math.min(chunkSize, payload.remaining());
+            ByteBuffer chunk = payload.duplicate();
+            chunk.limit(chunk.position() + length);
+            payload.position(payload.position() + length);
+            boolean last = fin && !payload.hasRemaining();
+            try {
+                if (opcode == Opcode.TEXT) {
+                    listener.onMessageChunk(webSocketImpl, decode(chunk, last), seq++, last);
+                } else {
+                    listener.onMessageChunk(webSocketImpl, chunk, seq++, last);
+                }
+            } catch (RuntimeException e) {
+                webSocketImpl.getWebSocketListener().onWebsocketError(webSocketImpl, e);
+            }
+        } while (payload.hasRemaining());
+    }
+
+    private String decode(ByteBuffer chunk, boolean last) throws InvalidDataException {
+        ByteBuffer in = chunk;
+        if (leftover != null) {
+            in = ByteBuffer.allocate(leftover.remaining() + chunk.remaining());
+            in.put(leftover).put(chunk);
+            in.flip();
+            leftover = null;
+        }
+        // never more chars than bytes in UTF-8
+        CharBuffer out = CharBuffer.allocate(in.remaining());
+        CoderResult result = decoder.decode(in, out, last);
+        if (!result.isError() && last) {
+            result = decoder.flush(out);
+        }
+        if (result.isError()) {
+            throw new InvalidDataException(CloseFrame.NO_UTF8, "Invalid UTF-8");
+        }
+        if (in.hasRemaining()) {
+            leftover = ByteBuffer.allocate(in.remaining());
+            leftover.put(in);
+            leftover.flip();
+        }
+        out.flip();
+        return out.toString();
+    }
+
+    private void clear() {
+        opcode = null;
+        pending.clear();
+        size = 0;
+        streaming = false;
+        seq = 0;
+        decoder = null;
+        leftover = null;
+    }
+
+}
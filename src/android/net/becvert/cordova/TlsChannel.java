@@ -0,0 +1,110 @@
+package net.becvert.cordova;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WrappedByteChannel;
+import org.java_websocket.interfaces.ISSLChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+// Wraps the SSLSocketChannel2 of a wss:// connection. It also completes the
+// TLS handshake on the selector writes, and then keeps the bytes read after
+// the client Finished message (the HTTP upgrade request, sent along with it by
+// TLS 1.3 and resumed TLS 1.2 clients) for the next read, which never comes
+// when no more bytes arrive: the handshake stalls. They are read here and
+// queued to the decoder thread of the connection instead.
+class TlsChannel implements ByteChannel, WrappedByteChannel, ISSLChannel {
+
+    private final WrappedByteChannel channel;
+
+    private final WebSocketImpl webSocket;
+
+    private final WebSocketServerImpl server;
+
+    TlsChannel(ByteChannel channel, WebSocketImpl webSocket) {
+        this.channel = (WrappedByteChannel) channel;
+        this.webSocket = webSocket;
+        this.server = (WebSocketServerImpl) webSocket.getWebSocketListener();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        boolean handshaking = isHandshaking();
+        int written = channel.write(src);
+        if (handshaking) {
+            readSaved();
+        }
+        return written;
+    }
+
+    @Override
+    public void writeMore() throws IOException {
+        boolean handshaking = isHandshaking();
+        channel.writeMore();
+        if (handshaking) {
+            readSaved();
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    @Override
+    public int readMore(ByteBuffer dst) throws IOException {
+        return channel.readMore(dst);
+    }
+
+    @Override
+    public boolean isNeedWrite() {
+        return channel.isNeedWrite();
+    }
+
+    @Override
+    public boolean isNeedRead() {
+        return channel.isNeedRead();
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return channel.isBlocking();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public SSLEngine getSSLEngine() {
+        return ((ISSLChannel) channel).getSSLEngine();
+    }
+
+    private boolean isHandshaking() {
+        HandshakeStatus status = getSSLEngine().getHandshakeStatus();
+        return status != HandshakeStatus.NOT_HANDSHAKING && status != HandshakeStatus.FINISHED;
+    }
+
+    private void readSaved() throws IOException {
+        while (!isHandshaking() && channel.isNeedRead()) {
+            ByteBuffer buffer = server.createBuffer();
+            if (channel.readMore(buffer) <= 0) {
+                return;
+            }
+            buffer.flip();
+            PluginLog.d("tls: bytes read after the handshake: ", buffer.remaining());
+            server.decodeLater(webSocket, buffer);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package net.becvert.cordova;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+// TLS of a wss:// server, with the key and certificate of a PKCS12 keystore.
+// The protocols and cipher suites are restricted to the given ones that the
+// platform supports, the cipher suites in their order of preference. Resumed
+// sessions skip the key exchange: they are cached for sessionTimeout seconds,
+// sessionCacheSize sessions at most.
+public class TlsSettings {
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1000;
+
+    public static final int DEFAULT_SESSION_TIMEOUT = 3600;
+
+    private final File keystore;
+
+    private final String password;
+
+    private final List<String> protocols;
+
+    private final List<String> cipherSuites;
+
+    private final int sessionCacheSize;
+
+    private final int sessionTimeout;
+
+    private SSLContext context;
+
+    public TlsSettings(File keystore, String password, List<String> protocols, List<String> cipherSuites,
+            int sessionCacheSize, int sessionTimeout) {
+        this.keystore = keystore;
+        this.password = password;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.sessionCacheSize = sessionCacheSize > 0 ? sessionCacheSize : DEFAULT_SESSION_CACHE_SIZE;
+        this.sessionTimeout = sessionTimeout > 0 ? sessionTimeout : DEFAULT_SESSION_TIMEOUT;
+    }
+
+    public synchronized SSLContext getContext() throws IOException, GeneralSecurityException {
+        if (context == null) {
+            char[] secret = password != null ? password.toCharArray() : new char[0];
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            InputStream in = new FileInputStream(keystore);
+            try {
+                keyStore.load(in, secret);
+            } finally {
+                in.close();
+            }
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, secret);
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+            SSLSessionContext sessions = sslContext.getServerSessionContext();
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeout);
+            context = sslContext;
+        }
+        return context;
+    }
+
+    public SSLParameters getParameters() throws IOException, GeneralSecurityException {
+        SSLContext sslContext = getContext();
+        SSLParameters parameters = sslContext.getDefaultSSLParameters();
+        SSLParameters supported = sslContext.getSupportedSSLParameters();
+        if (protocols != null) {
+            parameters.setProtocols(supported("protocol", protocols, supported.getProtocols()));
+        }
+        if (cipherSuites != null) {
+            parameters.setCipherSuites(supported("cipher suite", cipherSuites, supported.getCipherSuites()));
+            try {
+                parameters.setUseCipherSuitesOrder(true);
+            } catch (NoSuchMethodError e) {
+                // before Android 7, the client preference applies
+                PluginLog.w("tls: cipher suites order not supported");
+            }
+        }
+        return parameters;
+    }
+
+    // in the requested order
+    private static String[] supported(String kind, List<String> requested, String[] supported) {
+        List<String> supportedList = Arrays.asList(supported);
+        List<String> result = new ArrayList<String>();
+        for (String name : requested) {
+            if (supportedList.contains(name)) {
+                result.add(name);
+            } else {
+                PluginLog.w("tls: unsupported " + kind + ": ", name);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("No supported " + kind);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+}
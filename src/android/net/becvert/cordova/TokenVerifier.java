@@ -0,0 +1,152 @@
+package net.becvert.cordova;
+
+import android.util.Base64;
+
+import org.java_websocket.handshake.ClientHandshake;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Verifies the HS256 JSON Web Token of a handshake, taken from a query parameter
+// of the resource or from a header ("Bearer " prefix optional). The token must
+// have an 'exp' claim in the future, and an 'nbf' claim in the past if present.
+// The Mac is created once per decoder thread.
+public class TokenVerifier {
+
+    public static final String DEFAULT_QUERY_PARAM = "token";
+
+    public static final String DEFAULT_HEADER = "Authorization";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BEARER = "Bearer ";
+
+    private final SecretKeySpec key;
+
+    private final String queryParam;
+
+    private final String header;
+
+    private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    public TokenVerifier(String secret, String queryParam, String header) {
+        if (secret == null || secret.length() == 0) {
+            throw new IllegalArgumentException("secret is required");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(UTF_8), "HmacSHA256");
+        this.queryParam = queryParam;
+        this.header = header;
+        // fails now rather than in the first handshake
+        mac.get();
+    }
+
+    // the claims of the token, null if it is missing or not valid
+    public JSONObject verify(ClientHandshake request) {
+        String token = token(request);
+        if (token == null) {
+            PluginLog.d("auth: no token");
+            return null;
+        }
+
+        int firstDot = token.indexOf('.');
+        int lastDot = token.lastIndexOf('.');
+        if (firstDot <= 0 || lastDot == firstDot || lastDot == token.length() - 1) {
+            PluginLog.d("auth: malformed token");
+            return null;
+        }
+
+        try {
+            byte[] signature = Base64.decode(token.substring(lastDot + 1), Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+            Mac hmac = mac.get();
+            byte[] expected = hmac.doFinal(token.substring(0, lastDot).getBytes(UTF_8));
+            if (!MessageDigest.isEqual(expected, signature)) {
+                PluginLog.d("auth: bad signature");
+                return null;
+            }
+
+            JSONObject header = decodeJSON(token.substring(0, firstDot));
+            if (!"HS256".equals(header.optString("alg"))) {
+                PluginLog.d("auth: unsupported algorithm: ", header.optString("alg"));
+                return null;
+            }
+
+            JSONObject claims = decodeJSON(token.substring(firstDot + 1, lastDot));
+            long now = System.currentTimeMillis() / 1000;
+            if (!claims.has("exp") || claims.optLong("exp") <= now) {
+                PluginLog.d("auth: expired token");
+                return null;
+            }
+            if (claims.has("nbf") && claims.optLong("nbf") > now) {
+                PluginLog.d("auth: token not yet valid");
+                return null;
+            }
+            return claims;
+
+        } catch (IllegalArgumentException e) {
+            PluginLog.d("auth: bad encoding");
+            return null;
+        } catch (JSONException e) {
+            PluginLog.d("auth: bad JSON");
+            return null;
+        }
+    }
+
+    private String token(ClientHandshake request) {
+        if (header != null) {
+            String value = request.getFieldValue(header);
+            if (value != null && value.length() > 0) {
+                return value.startsWith(BEARER) ? value.substring(BEARER.length()).trim() : value.trim();
+            }
+        }
+        if (queryParam != null) {
+            return queryParameter(request.getResourceDescriptor(), queryParam);
+        }
+        return null;
+    }
+
+    // URL decoded, null if absent
+    static String queryParameter(String resource, String name) {
+        int query = resource == null ? -1 : resource.indexOf('?');
+        if (query == -1) {
+            return null;
+        }
+        String prefix = name + "=";
+        for (String param : resource.substring(query + 1).split("&")) {
+            if (param.startsWith(prefix)) {
+                try {
+                    return URLDecoder.decode(param.substring(prefix.length()), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    return null;
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static JSONObject decodeJSON(String part) throws JSONException {
+        byte[] json = Base64.decode(part, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+        return new JSONObject(new String(json, UTF_8));
+    }
+
+}
@@ -0,0 +1,124 @@
+package net.becvert.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// topic -> subscribers, with the topics of each connection kept on the
+// connection so that onClose unsubscribes it without scanning the topics.
+// Subscribing, unsubscribing and publishing are O(1) per subscriber and safe
+// to use from the decoder workers and the Cordova threads at the same time.
+// Adding a subscriber and removing an empty set lock the set, publishing
+// doesn't.
+// The subscriptions requested by the clients are limited per connection and
+// in total, so that a client can't grow the registry without bound. The
+// total can be exceeded by the subscriptions requested at the same time.
+public class TopicRegistry {
+
+    public static final int DEFAULT_MAX_TOPICS_PER_CONNECTION = 100;
+
+    public static final int DEFAULT_MAX_TOPICS = 10000;
+
+    private final ConcurrentHashMap<String, Set<Connection>> topics = new ConcurrentHashMap<String, Set<Connection>>();
+
+    private int maxTopicsPerConnection = DEFAULT_MAX_TOPICS_PER_CONNECTION;
+
+    private int maxTopics = DEFAULT_MAX_TOPICS;
+
+    // before the server starts
+    public void setClientLimits(int maxTopicsPerConnection, int maxTopics) {
+        this.maxTopicsPerConnection = maxTopicsPerConnection > 0 ? maxTopicsPerConnection : DEFAULT_MAX_TOPICS_PER_CONNECTION;
+        this.maxTopics = maxTopics > 0 ? maxTopics : DEFAULT_MAX_TOPICS;
+    }
+
+    // requested by the client, from its decoder thread. false over a limit
+    public boolean subscribeClient(Connection conn, String topic) {
+        if (!conn.topics.contains(topic)) {
+            if (conn.topics.size() >= maxTopicsPerConnection) {
+                return false;
+            }
+            if (!topics.containsKey(topic) && topics.size() >= maxTopics) {
+                return false;
+            }
+        }
+        subscribe(conn, topic);
+        return true;
+    }
+
+    public boolean subscribe(Connection conn, String topic) {
+        boolean added;
+        while (true) {
+            Set<Connection> subscribers = topics.get(topic);
+            if (subscribers == null) {
+                subscribers = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+                Set<Connection> existing = topics.putIfAbsent(topic, subscribers);
+                if (existing != null) {
+                    subscribers = existing;
+                }
+            }
+            // the set may have been removed as empty meanwhile
+            synchronized (subscribers) {
+                if (topics.get(topic) == subscribers) {
+                    added = subscribers.add(conn);
+                    break;
+                }
+            }
+        }
+        conn.topics.add(topic);
+
+        // closed meanwhile
+        if (conn.unsubscribed) {
+            unsubscribe(conn, topic);
+            return false;
+        }
+        return added;
+    }
+
+    public boolean unsubscribe(Connection conn, String topic) {
+        conn.topics.remove(topic);
+        Set<Connection> subscribers = topics.get(topic);
+        if (subscribers == null || !subscribers.remove(conn)) {
+            return false;
+        }
+        // not while a subscriber is being added. remove(topic, subscribers)
+        // compares the sets with equals(), any empty set would match
+        synchronized (subscribers) {
+            if (subscribers.isEmpty() && topics.get(topic) == subscribers) {
+                topics.remove(topic, subscribers);
+            }
+        }
+        return true;
+    }
+
+    // from onClose
+    public void unsubscribeAll(Connection conn) {
+        conn.unsubscribed = true;
+        for (String topic : conn.topics) {
+            unsubscribe(conn, topic);
+        }
+    }
+
+    // the subscribers, empty if nobody subscribed
+    public Set<Connection> subscribers(String topic) {
+        Set<Connection> subscribers = topic == null ? null : topics.get(topic);
+        return subscribers != null ? subscribers : Collections.<Connection> emptySet();
+    }
+
+    public void clear() {
+        topics.clear();
+    }
+
+    // subscriber counts
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Set<Connection>> entry : topics.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().size());
+        }
+        return json;
+    }
+
+}
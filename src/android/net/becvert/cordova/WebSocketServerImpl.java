@@ -1,31 +1,38 @@
 package net.becvert.cordova;
 
-import android.util.Log;
 import android.util.Base64;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.drafts.Draft;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.server.DefaultWebSocketServerFactory;
+import org.java_websocket.server.SSLParametersWebSocketServerFactory;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.nio.channels.ServerSocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
 
-public class WebSocketServerImpl extends WebSocketServer {
+import javax.net.ssl.SSLSession;
+
+public class WebSocketServerImpl extends WebSocketServer implements StreamingDraft.Listener {
 
     private final int[] notCleanCodes = new int[] { CloseFrame.ABNORMAL_CLOSE, CloseFrame.BUGGYCLOSE,
             CloseFrame.EXTENSION, CloseFrame.FLASHPOLICY, CloseFrame.GOING_AWAY, CloseFrame.NEVER_CONNECTED,
@@ -33,22 +40,84 @@ public class WebSocketServerImpl extends WebSocketServer {
             CloseFrame.REFUSE, CloseFrame.TLS_ERROR, CloseFrame.TOOBIG, CloseFrame.UNEXPECTED_CONDITION,
             CloseFrame.SERVICE_RESTART, CloseFrame.TRY_AGAIN_LATER, CloseFrame.BAD_GATEWAY };
 
-    public boolean failed = false;
+    public static final int DEFAULT_DECODERS = Runtime.getRuntime().availableProcessors();
+
+    public static final String SUBSCRIPTION_PREFIX = "{\"$";
+
+    public volatile boolean failed = false;
 
     private CallbackContext callbackContext;
 
-    private List<String> origins;
+    private OriginMatcher origins;
+
+    private AdmissionControl admission;
+
+    private TokenVerifier tokenVerifier;
+
+    // HTTP headers passed to onOpen, all of them when null
+    private List<String> httpFields;
+
+    private EventBatcher batcher;
+
+    private PauseBuffer pauseBuffer;
+
+    // replaced as a whole by setRules
+    private volatile MessageRules rules;
+
+    private SessionStore sessions;
+
+    // wss://
+    private boolean tls = false;
+
+    private Heartbeat heartbeat;
+
+    // deliver binary messages as ArrayBuffer results instead of Base64 strings
+    private boolean arrayBufferTransport = true;
+
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+
+    private final TopicRegistry topics = new TopicRegistry();
+
+    // clients may send {"$subscribe":"topic"} and {"$unsubscribe":"topic"}
+    private boolean clientSubscriptions = false;
+
+    private int receiveBufferSize = 0;
+
+    private DeflateExtension.Stats compressionStats;
+
+    private final ServerMetrics metrics = new ServerMetrics();
 
-    private Map<String, WebSocket> UUIDSockets = new HashMap<String, WebSocket>();
+    private final OutboundPipeline pipeline = new OutboundPipeline(
+            Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)), metrics,
+            new OutboundPipeline.Listener() {
+                @Override
+                public void onBackpressure(Connection conn, int bufferedFrames) {
+                    dispatchBackpressure("onBackpressure", conn, bufferedFrames);
+                }
+
+                @Override
+                public void onDrain(Connection conn, int bufferedFrames) {
+                    dispatchBackpressure("onDrain", conn, bufferedFrames);
+                }
+            });
 
-    private Map<WebSocket, String> socketsUUID = new HashMap<WebSocket, String>();
+    private final ServerWebSocketFactory webSocketFactory = new ServerWebSocketFactory(new DefaultWebSocketServerFactory());
+
+    private final int decoders;
 
     public WebSocketServerImpl(int port) {
-        super(new InetSocketAddress(port));
+        this(port, DEFAULT_DECODERS, null);
     }
 
     public WebSocketServerImpl(int port, List<Draft> drafts) {
-        super(new InetSocketAddress(port), drafts);
+        this(port, DEFAULT_DECODERS, drafts);
+    }
+
+    // the connections are assigned to the decoder threads in turn
+    public WebSocketServerImpl(int port, int decoders, List<Draft> drafts) {
+        super(new InetSocketAddress(port), decoders, drafts);
+        this.decoders = decoders;
+        setWebSocketFactory(webSocketFactory);
     }
 
     public CallbackContext getCallbackContext() {
@@ -60,7 +129,256 @@ public class WebSocketServerImpl extends WebSocketServer {
     }
 
     public void setOrigins(List<String> origins) {
-        this.origins = origins;
+        this.origins = new OriginMatcher(origins);
+    }
+
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    // the other headers are returned by getConnectionInfo
+    public void setHttpFields(List<String> httpFields) {
+        this.httpFields = httpFields;
+    }
+
+    // integer connection ids instead of random UUIDs, before the server starts
+    public void setCompactIds(boolean compactIds) {
+        registry.setCompactIds(compactIds);
+    }
+
+    // clients without a valid token are refused during the handshake
+    public void setTokenVerifier(TokenVerifier tokenVerifier) {
+        this.tokenVerifier = tokenVerifier;
+    }
+
+    public void setBatching(int maxEvents, int interval) {
+        this.batcher = new EventBatcher(callbackContext, maxEvents, interval, metrics.deliveryTime);
+    }
+
+    // holds the events while the app is paused
+    public void setPauseBuffering(int maxEvents, String policy, int batchSize) {
+        this.pauseBuffer = new PauseBuffer(callbackContext, metrics.deliveryTime, maxEvents,
+                PauseBuffer.Policy.fromString(policy), batchSize);
+    }
+
+    // before the server starts
+    public void setTls(TlsSettings settings) throws IOException, GeneralSecurityException {
+        webSocketFactory.setFactory(new SSLParametersWebSocketServerFactory(settings.getContext(),
+                settings.getParameters()));
+        this.tls = true;
+    }
+
+    // bytes read by a TlsChannel outside of the selector reads
+    void decodeLater(WebSocketImpl webSocket, ByteBuffer buffer) {
+        try {
+            webSocket.inQueue.put(buffer);
+            queue(webSocket);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // clients resume their session with the messages they missed
+    public void setSessions(SessionStore sessions) {
+        this.sessions = sessions;
+    }
+
+    // null removes the rules
+    public void setRules(MessageRules rules) {
+        this.rules = rules;
+    }
+
+    public void pause() {
+        if (pauseBuffer != null) {
+            pauseBuffer.pause();
+        }
+    }
+
+    public void resume() {
+        if (pauseBuffer != null) {
+            pauseBuffer.resume();
+        }
+    }
+
+    public void setArrayBufferTransport(boolean arrayBufferTransport) {
+        this.arrayBufferTransport = arrayBufferTransport;
+    }
+
+    // replaces the connection lost timeout of Java-WebSocket
+    public void setHeartbeat(int interval, int timeout) {
+        setConnectionLostTimeout(0);
+        this.heartbeat = new Heartbeat(registry, metrics, interval, timeout);
+    }
+
+    // limits of the subscriptions requested by the clients, 0 for the defaults
+    public void setClientSubscriptions(boolean clientSubscriptions, int maxTopicsPerConnection, int maxTopics) {
+        this.clientSubscriptions = clientSubscriptions;
+        topics.setClientLimits(maxTopicsPerConnection, maxTopics);
+    }
+
+    // SO_RCVBUF of the listening socket and SO_SNDBUF of the accepted sockets,
+    // 0 for the system default
+    public void setSocketBufferSizes(int receiveBufferSize, int sendBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        webSocketFactory.setSendBufferSize(sendBufferSize);
+    }
+
+    public void setCompressionStats(DeflateExtension.Stats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    public JSONObject getStats() throws JSONException {
+        JSONObject stats = metrics.toJSON();
+
+        int outboundQueue = 0;
+        JSONObject connections = new JSONObject();
+        for (Connection conn : registry.values()) {
+            int pending = conn.pending.get();
+            outboundQueue += pending;
+
+            JSONObject connStats = new JSONObject();
+            connStats.put("messagesIn", conn.messagesIn.get());
+            connStats.put("bytesIn", conn.bytesIn.get());
+            connStats.put("messagesOut", conn.messagesOut.get());
+            connStats.put("bytesOut", conn.bytesOut.get());
+            connStats.put("outboundQueue", pending);
+            connStats.put("bufferedFrames", OutboundPipeline.bufferedFrames(conn.webSocket));
+
+            Histogram rtt = conn.getRtt();
+            if (rtt != null) {
+                JSONObject rttStats = new JSONObject();
+                rttStats.put("last", rtt.getLast());
+                rttStats.put("mean", rtt.getMean());
+                rttStats.put("p99", rtt.getPercentile(99));
+                connStats.put("rtt", rttStats);
+            }
+            connections.put(conn.uuid, connStats);
+        }
+        stats.put("openConnections", registry.size());
+        stats.put("decoders", decoders);
+        stats.put("outboundQueue", outboundQueue);
+        stats.put("connections", connections);
+
+        stats.put("topics", topics.toJSON());
+
+        if (admission != null) {
+            stats.put("admission", admission.toJSON());
+        }
+
+        if (pauseBuffer != null) {
+            stats.put("pauseBuffering", pauseBuffer.toJSON());
+        }
+
+        MessageRules rules = this.rules;
+        if (rules != null) {
+            stats.put("rules", rules.toJSON());
+        }
+
+        if (sessions != null) {
+            stats.put("sessions", sessions.toJSON());
+        }
+
+        if (tls) {
+            stats.put("tls", metrics.tlsToJSON());
+        }
+
+        if (compressionStats != null) {
+            stats.put("compression", compressionStats.toJSON());
+        }
+        return stats;
+    }
+
+    public void setBackpressure(int highWaterMark, int lowWaterMark, String policy, long blockTimeout) {
+        pipeline.setBackpressure(highWaterMark, lowWaterMark, OutboundPipeline.Policy.fromString(policy), blockTimeout);
+    }
+
+    private void dispatchBackpressure(String action, Connection conn, int bufferedFrames) {
+        PluginLog.v(action);
+
+        if (this.failed) {
+            return;
+        }
+
+        try {
+            JSONObject status = new JSONObject();
+            status.put("action", action);
+            status.put("uuid", conn.eventId);
+            status.put("bufferedFrames", bufferedFrames);
+
+            dispatch(status);
+
+        } catch (JSONException e) {
+            PluginLog.e(e.getMessage(), e);
+        }
+    }
+
+    private void dispatch(JSONObject status, byte[] binary, long receivedAt) throws JSONException {
+        if (pauseBuffer != null && pauseBuffer.offer(status, binary, receivedAt)) {
+            return;
+        }
+        if (batcher != null) {
+            batcher.add(status, binary, receivedAt);
+        } else {
+            // multipart result: the JSON event followed by the ArrayBuffer
+            status.put("part", 1);
+            List<PluginResult> parts = new ArrayList<PluginResult>(2);
+            parts.add(new PluginResult(PluginResult.Status.OK, status));
+            parts.add(new PluginResult(PluginResult.Status.OK, binary));
+            PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+            metrics.deliveryTime.record((System.nanoTime() - receivedAt) / 1000);
+        }
+    }
+
+    private void dispatch(JSONObject status) {
+        dispatch(status, 0);
+    }
+
+    // receivedAt: reception time of a message, 0 for the other events
+    private void dispatch(JSONObject status, long receivedAt) {
+        if (pauseBuffer != null && pauseBuffer.offer(status, null, receivedAt)) {
+            return;
+        }
+        if (batcher != null) {
+            batcher.add(status, null, receivedAt);
+        } else {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, status);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+            if (receivedAt != 0) {
+                metrics.deliveryTime.record((System.nanoTime() - receivedAt) / 1000);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        pipeline.start();
+        if (heartbeat != null) {
+            heartbeat.start();
+        }
+    }
+
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        try {
+            super.stop(timeout);
+        } finally {
+            pipeline.shutdown();
+            if (heartbeat != null) {
+                heartbeat.shutdown();
+            }
+            if (pauseBuffer != null) {
+                // the held events, then the last onClose events
+                pauseBuffer.resume();
+            }
+            if (batcher != null) {
+                // deliver the last onClose events
+                batcher.shutdown();
+            }
+        }
     }
 
     @Override
@@ -72,130 +390,302 @@ public class WebSocketServerImpl extends WebSocketServer {
 
         if (origins != null) {
             String origin = request.getFieldValue("Origin");
-            if (origins.indexOf(origin) == -1) {
-                Log.w(WebSocketServerPlugin.TAG, "handshake: origin denied: " + origin);
+            if (!origins.matches(origin)) {
+                PluginLog.w("handshake: origin denied: ", origin);
                 throw new InvalidDataException(CloseFrame.REFUSE);
             }
         }
 
+        if (admission != null) {
+            admission.checkHandshake(remoteAddress(conn));
+        }
+
+        if (tokenVerifier != null) {
+            JSONObject claims = tokenVerifier.verify(request);
+            if (claims == null) {
+                metrics.handshakesUnauthorized.incrementAndGet();
+                PluginLog.w("handshake: unauthorized: ", request.getResourceDescriptor());
+                throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, "Unauthorized");
+            }
+            Object handshake = conn.getAttachment();
+            if (handshake instanceof ServerWebSocketFactory.Handshake) {
+                ((ServerWebSocketFactory.Handshake) handshake).claims = claims;
+            }
+        }
+
         return serverHandshakeBuilder;
     }
 
     @Override
     public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
-        Log.v(WebSocketServerPlugin.TAG, "onopen");
+        PluginLog.v("onopen");
+
+        String address = remoteAddress(webSocket);
+        if (admission != null && !admission.admit(address)) {
+            // over a limit after concurrent handshakes, never reported to the WebView
+            PluginLog.w("onopen: connection rejected: ", address);
+            webSocket.close(CloseFrame.TRY_AGAIN_LATER, AdmissionControl.REJECTED_REASON);
+            return;
+        }
 
-        String uuid = null;
-        while (uuid == null || UUIDSockets.containsKey(uuid)) {
-            // prevent collision
-            uuid = UUID.randomUUID().toString();
+        Object attachment = webSocket.getAttachment();
+        ServerWebSocketFactory.Handshake handshake = attachment instanceof ServerWebSocketFactory.Handshake
+                ? (ServerWebSocketFactory.Handshake) attachment : null;
+        Connection registered = registry.register(webSocket);
+        if (registered == null) {
+            // all the compact ids are in use
+            PluginLog.w("onopen: no connection id left for ", address);
+            if (admission != null) {
+                admission.release(address);
+            }
+            webSocket.close(CloseFrame.TRY_AGAIN_LATER, AdmissionControl.REJECTED_REASON);
+            return;
+        }
+        registered.address = address;
+        registered.handshake = clientHandshake;
+        if (handshake != null) {
+            registered.claims = handshake.claims;
         }
-        UUIDSockets.put(uuid, webSocket);
-        socketsUUID.put(webSocket, uuid);
 
-        try {
-            JSONObject httpFields = new JSONObject();
-            Iterator<String> iterator = clientHandshake.iterateHttpFields();
-            while (iterator.hasNext()) {
-                String httpField = iterator.next();
-                httpFields.put(httpField, clientHandshake.getFieldValue(httpField));
+        SessionStore.Resumption resumption = null;
+        if (sessions != null) {
+            resumption = sessions.open(clientHandshake.getResourceDescriptor(), registered);
+            if (resumption != null) {
+                registered.session = resumption.session;
+                if (resumption.previous != null) {
+                    // a connection not closed yet on this side
+                    pipeline.close(resumption.previous, CloseFrame.POLICY_VALIDATION, "Session resumed");
+                }
+                if (resumption.messages != null) {
+                    // before any message sent from the WebView
+                    pipeline.replay(registered, resumption.messages);
+                }
+            }
+        }
+        // a message sent to all the connections before would miss its seq
+        registered.opened = true;
+
+        metrics.connectionOpened(registered);
+        if (handshake != null) {
+            long handshakeTime = (System.nanoTime() - handshake.acceptedAt) / 1000;
+            metrics.handshakeTime.record(handshakeTime);
+            if (tls) {
+                recordTlsHandshake(webSocket, handshake, handshakeTime);
             }
+        }
 
+        try {
             JSONObject conn = new JSONObject();
-            conn.put("uuid", uuid);
-            InetAddress addr = webSocket.getRemoteSocketAddress().getAddress();
-            conn.put("remoteAddr", addr == null ? null : addr.getHostAddress());
-            conn.put("httpFields", httpFields);
+            conn.put("uuid", registered.eventId);
+            conn.put("remoteAddr", address);
+            conn.put("httpFields", httpFields(clientHandshake, httpFields));
             conn.put("resource", clientHandshake.getResourceDescriptor());
+            if (registered.claims != null) {
+                conn.put("claims", registered.claims);
+            }
+            if (resumption != null) {
+                JSONObject session = new JSONObject();
+                session.put("resumed", resumption.messages != null);
+                session.put("replayed", resumption.messages != null ? resumption.messages.size() : 0);
+                session.put("seq", resumption.seq);
+                conn.put("session", session);
+            }
 
             JSONObject status = new JSONObject();
             status.put("action", "onOpen");
             status.put("conn", conn);
 
-            Log.d(WebSocketServerPlugin.TAG, "onopen result: " + status.toString());
-            PluginResult result = new PluginResult(PluginResult.Status.OK, status);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
+            PluginLog.d("onopen result: ", status);
+            dispatch(status);
 
         } catch (JSONException e) {
-            Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+            PluginLog.e(e.getMessage(), e);
+            metrics.callbackErrors.incrementAndGet();
             callbackContext.error("Error: " + e.getMessage());
         }
     }
 
     @Override
     public void onMessage(WebSocket webSocket, String msg) {
-        Log.v(WebSocketServerPlugin.TAG, "onmessage");
+        PluginLog.v("onmessage");
+
+        long receivedAt = System.nanoTime();
+        Connection conn = registry.get(webSocket);
+
+        if (conn != null) {
+            conn.lastSeen = receivedAt;
+            metrics.messageIn(conn, ServerMetrics.utf8Length(msg));
+
+            if (clientSubscriptions && msg.startsWith(SUBSCRIPTION_PREFIX) && handleSubscription(conn, msg)) {
+                return;
+            }
 
-        String uuid = socketsUUID.get(webSocket);
+            MessageRules rules = this.rules;
+            if (rules != null && !applyRules(rules, conn, msg)) {
+                return;
+            }
 
-        if (uuid != null) {
             try {
                 JSONObject status = new JSONObject();
                 status.put("action", "onMessage");
-                status.put("uuid", uuid);
+                status.put("uuid", conn.eventId);
                 status.put("msg", msg);
 
-                Log.d(WebSocketServerPlugin.TAG, "onmessage result: " + status.toString());
-                PluginResult result = new PluginResult(PluginResult.Status.OK, status);
-                result.setKeepCallback(true);
-                callbackContext.sendPluginResult(result);
+                PluginLog.d("onmessage result: ", status);
+                dispatch(status, receivedAt);
 
             } catch (JSONException e) {
-                Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+                PluginLog.e(e.getMessage(), e);
+                metrics.callbackErrors.incrementAndGet();
                 callbackContext.error("Error: " + e.getMessage());
             }
         } else {
-            Log.d(WebSocketServerPlugin.TAG, "onmessage: unknown websocket");
+            PluginLog.d("onmessage: unknown websocket");
         }
 
     }
 
     @Override
     public void onMessage(WebSocket webSocket, ByteBuffer binary){
-        Log.v(WebSocketServerPlugin.TAG, "onmessage (binary)");
+        PluginLog.v("onmessage (binary)");
 
-        String uuid = socketsUUID.get(webSocket);
+        long receivedAt = System.nanoTime();
+        Connection conn = registry.get(webSocket);
 
-        if (uuid != null) {
+        if (conn != null) {
+            conn.lastSeen = receivedAt;
+            metrics.messageIn(conn, binary.remaining());
             try {
-                // convert ByteBuffer to byte[]
-                byte[] bin = new byte[binary.remaining()];
-                binary.get(bin);
+                byte[] bin = toByteArray(binary);
 
                 JSONObject status = new JSONObject();
                 status.put("action", "onMessage");
-                status.put("uuid", uuid);
-                status.put("msg", Base64.encodeToString(bin, Base64.DEFAULT));
+                status.put("uuid", conn.eventId);
                 status.put("is_binary", true);
 
-                Log.d(WebSocketServerPlugin.TAG, "onmessage (binary) result: " + status.toString());
-                PluginResult result = new PluginResult(PluginResult.Status.OK, status);
-                result.setKeepCallback(true);
-                callbackContext.sendPluginResult(result);
+                if (arrayBufferTransport) {
+                    PluginLog.d("onmessage (binary) result: ", status);
+                    dispatch(status, bin, receivedAt);
+                } else {
+                    // legacy transport for Cordova versions without multipart results
+                    status.put("msg", Base64.encodeToString(bin, Base64.DEFAULT));
+
+                    PluginLog.d("onmessage (binary) result: ", status);
+                    dispatch(status, receivedAt);
+                }
+
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+                metrics.callbackErrors.incrementAndGet();
+                callbackContext.error("Error: " + e.getMessage());
+            }
+        } else {
+            PluginLog.d("onmessage (binary): unknown websocket");
+        }
+    }
+
+    // a part of a message larger than the streaming threshold, see StreamingDraft
+    @Override
+    public void onMessageChunk(WebSocket webSocket, String chunk, int seq, boolean last) {
+        PluginLog.v("onmessagechunk");
+
+        long receivedAt = System.nanoTime();
+        Connection conn = registry.get(webSocket);
+
+        if (conn != null) {
+            conn.lastSeen = receivedAt;
+            metrics.chunkIn(conn, ServerMetrics.utf8Length(chunk), last);
+            try {
+                JSONObject status = new JSONObject();
+                status.put("action", "onMessageChunk");
+                status.put("uuid", conn.eventId);
+                status.put("seq", seq);
+                status.put("last", last);
+                status.put("msg", chunk);
+
+                PluginLog.d("onmessagechunk result: ", seq);
+                dispatch(status, receivedAt);
 
             } catch (JSONException e) {
-                Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+                PluginLog.e(e.getMessage(), e);
+                metrics.callbackErrors.incrementAndGet();
                 callbackContext.error("Error: " + e.getMessage());
             }
         } else {
-            Log.d(WebSocketServerPlugin.TAG, "onmessage (binary): unknown websocket");
+            PluginLog.d("onmessagechunk: unknown websocket");
+        }
+    }
+
+    @Override
+    public void onMessageChunk(WebSocket webSocket, ByteBuffer chunk, int seq, boolean last) {
+        PluginLog.v("onmessagechunk (binary)");
+
+        long receivedAt = System.nanoTime();
+        Connection conn = registry.get(webSocket);
+
+        if (conn != null) {
+            conn.lastSeen = receivedAt;
+            metrics.chunkIn(conn, chunk.remaining(), last);
+            try {
+                byte[] bin = toByteArray(chunk);
+
+                JSONObject status = new JSONObject();
+                status.put("action", "onMessageChunk");
+                status.put("uuid", conn.eventId);
+                status.put("seq", seq);
+                status.put("last", last);
+                status.put("is_binary", true);
+
+                PluginLog.d("onmessagechunk (binary) result: ", seq);
+                if (arrayBufferTransport) {
+                    dispatch(status, bin, receivedAt);
+                } else {
+                    status.put("msg", Base64.encodeToString(bin, Base64.DEFAULT));
+                    dispatch(status, receivedAt);
+                }
+
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+                metrics.callbackErrors.incrementAndGet();
+                callbackContext.error("Error: " + e.getMessage());
+            }
+        } else {
+            PluginLog.d("onmessagechunk (binary): unknown websocket");
+        }
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket webSocket, Framedata pong) {
+        super.onWebsocketPong(webSocket, pong);
+
+        Connection conn = registry.get(webSocket);
+        if (heartbeat != null && conn != null) {
+            heartbeat.onPong(conn, pong);
         }
     }
 
     @Override
     public void onClose(WebSocket webSocket, int code, String reason, boolean remote) {
-        Log.v(WebSocketServerPlugin.TAG, "onclose");
+        PluginLog.v("onclose");
 
         if (webSocket != null) {
 
-            String uuid = socketsUUID.get(webSocket);
+            Connection conn = registry.unregister(webSocket);
 
-            if (uuid != null) {
+            if (conn != null) {
+                topics.unsubscribeAll(conn);
+                pipeline.closed(conn);
+                if (conn.session != null) {
+                    conn.session.detach(conn);
+                }
+                metrics.connectionClosed(conn);
+                if (admission != null) {
+                    admission.release(conn.address);
+                }
                 try {
                     JSONObject status = new JSONObject();
                     status.put("action", "onClose");
-                    status.put("uuid", uuid);
+                    status.put("uuid", conn.eventId);
                     status.put("code", code);
                     status.put("reason", reason);
 
@@ -208,20 +698,16 @@ public class WebSocketServerImpl extends WebSocketServer {
                     }
                     status.put("wasClean", wasClean);
 
-                    Log.d(WebSocketServerPlugin.TAG, "onclose result: " + status.toString());
-                    PluginResult result = new PluginResult(PluginResult.Status.OK, status);
-                    result.setKeepCallback(true);
-                    callbackContext.sendPluginResult(result);
+                    PluginLog.d("onclose result: ", status);
+                    dispatch(status);
 
                 } catch (JSONException e) {
-                    Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+                    PluginLog.e(e.getMessage(), e);
+                    metrics.callbackErrors.incrementAndGet();
                     callbackContext.error("Error: " + e.getMessage());
-                } finally {
-                    socketsUUID.remove(webSocket);
-                    UUIDSockets.remove(uuid);
                 }
             } else {
-                Log.d(WebSocketServerPlugin.TAG, "onclose: unknown websocket");
+                PluginLog.d("onclose: unknown websocket");
             }
 
         }
@@ -230,11 +716,10 @@ public class WebSocketServerImpl extends WebSocketServer {
 
     @Override
     public void onError(WebSocket webSocket, Exception exception) {
-        Log.v(WebSocketServerPlugin.TAG, "onerror");
+        PluginLog.v("onerror");
 
         if (exception != null) {
-            Log.e(WebSocketServerPlugin.TAG, "onerror: " + exception.getMessage());
-            exception.printStackTrace();
+            PluginLog.e("onerror: " + exception.getMessage(), exception);
         }
 
         if (webSocket == null) {
@@ -243,15 +728,12 @@ public class WebSocketServerImpl extends WebSocketServer {
                 try {
                     // normally already stopped. just making sure!
                     this.stop();
-                } catch (IOException e) {
-                    // fail silently
-                    Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
                 } catch (InterruptedException e) {
                     // fail silently
-                    Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+                    PluginLog.e(e.getMessage(), e);
                 } catch (RuntimeException e) {
                     // fail silently
-                    Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+                    PluginLog.e(e.getMessage(), e);
                 }
 
                 JSONObject status = new JSONObject();
@@ -262,20 +744,27 @@ public class WebSocketServerImpl extends WebSocketServer {
                     status.put("reason", exception.getMessage());
                 }
 
-                Log.d(WebSocketServerPlugin.TAG, "onerror result: " + status.toString());
+                PluginLog.d("onerror result: ", status);
                 PluginResult result = new PluginResult(PluginResult.Status.OK, status);
                 result.setKeepCallback(false);
                 callbackContext.sendPluginResult(result);
 
             } catch (JSONException e) {
-                Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+                PluginLog.e(e.getMessage(), e);
+                metrics.callbackErrors.incrementAndGet();
                 callbackContext.error("Error: " + e.getMessage());
 
             } finally {
                 failed = true;
                 callbackContext = null;
-                UUIDSockets = null;
-                socketsUUID = null;
+                registry.clear();
+                topics.clear();
+                if (admission != null) {
+                    admission.clear();
+                }
+                if (sessions != null) {
+                    sessions.clear();
+                }
             }
 
         } else {
@@ -289,70 +778,289 @@ public class WebSocketServerImpl extends WebSocketServer {
 
     @Override
     public void onStart() {
-        Log.v(WebSocketServerPlugin.TAG, "onstart");
+        PluginLog.v("onstart");
+
+        if (receiveBufferSize > 0) {
+            setListenerReceiveBufferSize();
+        }
 
         try {
             JSONObject status = new JSONObject();
             status.put("addr", this.getHostAddress());
             status.put("port", this.getPort());
 
-            Log.d(WebSocketServerPlugin.TAG, "start result: " + status.toString());
+            PluginLog.d("start result: ", status);
             PluginResult result = new PluginResult(PluginResult.Status.OK, status);
             result.setKeepCallback(true);
             callbackContext.sendPluginResult(result);
 
         } catch (JSONException e) {
-            Log.e(WebSocketServerPlugin.TAG, e.getMessage(), e);
+            PluginLog.e(e.getMessage(), e);
+        }
+    }
+
+    // The accepted sockets inherit SO_RCVBUF from the listening socket, and the
+    // TCP window scale is negotiated before the accept: set on them, a buffer
+    // larger than 64 KB would not enlarge the window. The library sets 16 KB
+    // on its listening socket before binding it and has no hook there, so it
+    // is replaced once bound, before the selector accepts any connection.
+    private void setListenerReceiveBufferSize() {
+        try {
+            Field field = WebSocketServer.class.getDeclaredField("server");
+            field.setAccessible(true);
+            ServerSocketChannel channel = (ServerSocketChannel) field.get(this);
+            channel.socket().setReceiveBufferSize(receiveBufferSize);
+            PluginLog.d("onstart: receive buffer size: ", channel.socket().getReceiveBufferSize());
+        } catch (Exception e) {
+            PluginLog.w("onstart: receive buffer size not set: ", e);
         }
     }
 
     public void send(String uuid, String msg, boolean is_binary) {
-        Log.v(WebSocketServerPlugin.TAG, "send");
+        PluginLog.v("send");
 
-        WebSocket webSocket = UUIDSockets.get(uuid);
+        Connection conn = registry.get(uuid);
 
-        if (webSocket != null && !this.failed) {
-            if (webSocket.isOpen()) {
-                if (!is_binary) {
-                    
-                    // send text frame (websocket opcode 1)
-                    webSocket.send(msg);
-                    
-                } else {
-                    // send binary frame (websocket opcode 2)
-                    try {
-                        webSocket.send(Base64.decode(msg, Base64.DEFAULT));
+        if (conn != null && !this.failed) {
+            if (!is_binary) {
+                pipeline.send(conn, msg);
+            } else {
+                pipeline.sendBase64(conn, msg);
+            }
+        } else {
+            PluginLog.d("send: unknown websocket");
+        }
 
-                    } catch(IllegalArgumentException e) {
-                        Log.d(WebSocketServerPlugin.TAG, "send: wrong binary format");
-                    }
-                }
+    }
+
+    // false if the connection is unknown
+    public boolean sendFile(String uuid, File file, int chunkSize, int progressInterval,
+            CallbackContext fileCallbackContext) {
+        PluginLog.v("sendFile");
+
+        Connection conn = registry.get(uuid);
+
+        if (conn != null && !this.failed) {
+            pipeline.sendFile(conn, new FileStream(file, chunkSize, progressInterval, fileCallbackContext));
+            return true;
+        }
+        PluginLog.d("sendFile: unknown websocket");
+        return false;
+    }
+
+    public void sendConflated(String uuid, String key, String msg, boolean is_binary) {
+        PluginLog.v("sendConflated");
+
+        Connection conn = registry.get(uuid);
+
+        if (conn != null && !this.failed) {
+            pipeline.sendConflated(conn, key, msg, is_binary);
+        } else {
+            PluginLog.d("sendConflated: unknown websocket");
+        }
+    }
+
+    public void broadcast(String msg, boolean is_binary) {
+        PluginLog.v("broadcast");
+
+        if (this.failed) {
+            return;
+        }
+
+        OutboundPipeline.SharedMessage shared = new OutboundPipeline.SharedMessage(msg, is_binary);
+        for (Connection conn : registry.values()) {
+            if (conn.opened) {
+                pipeline.send(conn, shared);
+            }
+        }
+    }
+
+    public void sendToMany(List<String> uuids, String msg, boolean is_binary) {
+        PluginLog.v("sendToMany");
+
+        if (this.failed) {
+            return;
+        }
+
+        OutboundPipeline.SharedMessage shared = new OutboundPipeline.SharedMessage(msg, is_binary);
+        for (String uuid : uuids) {
+            Connection conn = registry.get(uuid);
+            if (conn != null && conn.opened) {
+                pipeline.send(conn, shared);
             } else {
-                Log.d(WebSocketServerPlugin.TAG, "send: websocket not open");
+                PluginLog.d("sendToMany: unknown websocket");
             }
+        }
+    }
+
+    public void subscribe(String uuid, String topic) {
+        PluginLog.v("subscribe");
+
+        Connection conn = registry.get(uuid);
+
+        if (conn != null && !this.failed) {
+            topics.subscribe(conn, topic);
         } else {
-            Log.d(WebSocketServerPlugin.TAG, "send: unknown websocket");
+            PluginLog.d("subscribe: unknown websocket");
         }
+    }
 
+    public void unsubscribe(String uuid, String topic) {
+        PluginLog.v("unsubscribe");
+
+        Connection conn = registry.get(uuid);
+
+        if (conn != null) {
+            topics.unsubscribe(conn, topic);
+        } else {
+            PluginLog.d("unsubscribe: unknown websocket");
+        }
     }
 
-    public void close(String uuid, int code, String reason) {
-        Log.v(WebSocketServerPlugin.TAG, "close");
+    public void publish(String topic, String msg, boolean is_binary) {
+        PluginLog.v("publish");
 
-        WebSocket webSocket = UUIDSockets.get(uuid);
+        if (this.failed) {
+            return;
+        }
+
+        OutboundPipeline.SharedMessage shared = null;
+        for (Connection conn : topics.subscribers(topic)) {
+            if (shared == null) {
+                shared = new OutboundPipeline.SharedMessage(msg, is_binary);
+            }
+            pipeline.send(conn, shared);
+        }
+    }
 
-        if (webSocket != null && !this.failed) {
-            if (code == -1) {
-                webSocket.close(CloseFrame.NORMAL);
+    // a resumed TLS session was created before the TCP accept
+    private void recordTlsHandshake(WebSocket webSocket, ServerWebSocketFactory.Handshake handshake,
+            long handshakeTime) {
+        try {
+            SSLSession session = webSocket.getSSLSession();
+            if (session != null && session.getCreationTime() < handshake.acceptedAtMillis) {
+                metrics.resumedTlsHandshakeTime.record(handshakeTime);
             } else {
-                webSocket.close(code, reason);
+                metrics.fullTlsHandshakeTime.record(handshakeTime);
+            }
+        } catch (IllegalArgumentException e) {
+            PluginLog.d("onopen: no TLS session");
+        }
+    }
+
+    // false if the message is not delivered to the WebView
+    private boolean applyRules(MessageRules rules, Connection conn, String msg) {
+        MessageRules.Rule rule = rules.match(msg);
+        if (rule == null) {
+            return true;
+        }
+        if (rule.action == MessageRules.Action.REPLY && !this.failed) {
+            pipeline.reply(conn, rule.reply);
+        }
+        return rule.hit();
+    }
+
+    // returns whether the message was a subscription request
+    private boolean handleSubscription(Connection conn, String msg) {
+        try {
+            JSONObject request = new JSONObject(msg);
+            String topic = request.optString("$subscribe", null);
+            if (topic != null) {
+                if (!topics.subscribeClient(conn, topic)) {
+                    PluginLog.d("subscribe: topic limit reached");
+                    metrics.subscriptionsRefused.incrementAndGet();
+                }
+                return true;
             }
+            topic = request.optString("$unsubscribe", null);
+            if (topic != null) {
+                topics.unsubscribe(conn, topic);
+                return true;
+            }
+        } catch (JSONException e) {
+            // an ordinary message
+        }
+        return false;
+    }
+
+    public void close(String uuid, int code, String reason) {
+        PluginLog.v("close");
+
+        Connection conn = registry.get(uuid);
+
+        if (conn != null && !this.failed) {
+            pipeline.close(conn, code, reason);
         } else {
-            Log.d(WebSocketServerPlugin.TAG, "close: unknown websocket");
+            PluginLog.d("close: unknown websocket");
         }
 
     }
 
+    // all the handshake metadata, built once per connection
+    public JSONObject getConnectionInfo(String uuid) throws JSONException {
+        Connection conn = registry.get(uuid);
+        if (conn == null) {
+            return null;
+        }
+        synchronized (conn) {
+            if (conn.info == null) {
+                JSONObject info = new JSONObject();
+                info.put("uuid", conn.eventId);
+                info.put("remoteAddr", conn.address);
+                if (conn.handshake != null) {
+                    info.put("httpFields", httpFields(conn.handshake, null));
+                    info.put("resource", conn.handshake.getResourceDescriptor());
+                }
+                if (conn.claims != null) {
+                    info.put("claims", conn.claims);
+                }
+                conn.info = info;
+                conn.handshake = null;
+            }
+            return conn.info;
+        }
+    }
+
+    // names: the fields to copy, all of them when null
+    private static JSONObject httpFields(ClientHandshake handshake, List<String> names) throws JSONException {
+        JSONObject httpFields = new JSONObject();
+        if (names == null) {
+            Iterator<String> iterator = handshake.iterateHttpFields();
+            while (iterator.hasNext()) {
+                String httpField = iterator.next();
+                httpFields.put(httpField, handshake.getFieldValue(httpField));
+            }
+        } else {
+            for (String httpField : names) {
+                // case insensitive lookup, empty when missing
+                if (handshake.hasFieldValue(httpField)) {
+                    httpFields.put(httpField, handshake.getFieldValue(httpField));
+                }
+            }
+        }
+        return httpFields;
+    }
+
+    private static String remoteAddress(WebSocket webSocket) {
+        InetSocketAddress socketAddr = webSocket.getRemoteSocketAddress();
+        if (socketAddr == null) {
+            return null;
+        }
+        InetAddress addr = socketAddr.getAddress();
+        return addr == null ? null : addr.getHostAddress();
+    }
+
+    private static byte[] toByteArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            // the frame payload owns its backing array, no copy needed
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
     public String getHostAddress() {
         InetSocketAddress socketAddr = this.getAddress();
         if (socketAddr == null) {
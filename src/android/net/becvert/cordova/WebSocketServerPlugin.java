@@ -1,14 +1,19 @@
 package net.becvert.cordova;
 
-import java.io.IOException;
+import java.io.File;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
@@ -16,6 +21,7 @@ import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.PluginResult.Status;
+import org.java_websocket.drafts.Draft;
 import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.extensions.IExtension;
 import org.java_websocket.protocols.IProtocol;
@@ -24,40 +30,77 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.util.Log;
-
 public class WebSocketServerPlugin extends CordovaPlugin {
 
     public static final String TAG = "WebSocketServer";
 
-    private WebSocketServerImpl wsserver = null;
+    public static final String DEFAULT_SERVER = "default";
+
+    // running servers by name, each with its own threads, connections and callback
+    private final Map<String, WebSocketServerImpl> servers = new ConcurrentHashMap<String, WebSocketServerImpl>();
 
     public static final String ACTION_GET_INTERFACES = "getInterfaces";
     public static final String ACTION_START = "start";
     public static final String ACTION_STOP = "stop";
     public static final String ACTION_SEND = "send";
     public static final String ACTION_SEND_BINARY = "send_binary";
+    public static final String ACTION_SEND_FILE = "sendFile";
+    public static final String ACTION_SEND_CONFLATED = "sendConflated";
+    public static final String ACTION_SEND_CONFLATED_BINARY = "sendConflated_binary";
+    public static final String ACTION_BROADCAST = "broadcast";
+    public static final String ACTION_BROADCAST_BINARY = "broadcast_binary";
+    public static final String ACTION_SEND_TO_MANY = "sendToMany";
+    public static final String ACTION_SEND_TO_MANY_BINARY = "sendToMany_binary";
     public static final String ACTION_CLOSE = "close";
+    public static final String ACTION_GET_STATS = "getStats";
+    public static final String ACTION_GET_CONNECTION_INFO = "getConnectionInfo";
+    public static final String ACTION_SET_RULES = "setRules";
+    public static final String ACTION_SET_LOG_LEVEL = "setLogLevel";
+    public static final String ACTION_SUBSCRIBE = "subscribe";
+    public static final String ACTION_UNSUBSCRIBE = "unsubscribe";
+    public static final String ACTION_PUBLISH = "publish";
+    public static final String ACTION_PUBLISH_BINARY = "publish_binary";
 
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
 
-        Log.v(TAG, "Initialized");
+        PluginLog.v("Initialized");
+    }
+
+    @Override
+    public void onPause(boolean multitasking) {
+        super.onPause(multitasking);
+        for (WebSocketServerImpl wsserver : servers.values()) {
+            wsserver.pause();
+        }
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        super.onResume(multitasking);
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                // the held events are delivered off the UI thread
+                for (WebSocketServerImpl wsserver : servers.values()) {
+                    wsserver.resume();
+                }
+            }
+        });
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (wsserver != null) {
-            try {
-                wsserver.stop();
-            } catch (IOException e) {
-                Log.e(TAG, e.getMessage(), e);
-            } catch (InterruptedException e) {
-                Log.e(TAG, e.getMessage(), e);
-            } finally {
-                wsserver = null;
+        for (String name : servers.keySet()) {
+            WebSocketServerImpl wsserver = servers.remove(name);
+            if (wsserver != null) {
+                try {
+                    wsserver.stop();
+                } catch (InterruptedException e) {
+                    PluginLog.e(e.getMessage(), e);
+                }
             }
         }
     }
@@ -65,10 +108,6 @@ public class WebSocketServerPlugin extends CordovaPlugin {
     @Override
     public boolean execute(String action, JSONArray args, final CallbackContext callbackContext) {
 
-        if (wsserver != null && wsserver.failed) {
-            wsserver = null;
-        }
-
         if (ACTION_GET_INTERFACES.equals(action)) {
 
             cordova.getThreadPool().execute(new Runnable() {
@@ -77,16 +116,16 @@ public class WebSocketServerPlugin extends CordovaPlugin {
                     try {
                         JSONObject addresses = getInterfaces();
 
-                        Log.d(TAG, "Addresses: " + addresses);
+                        PluginLog.d("Addresses: ", addresses);
 
                         PluginResult result = new PluginResult(Status.OK, addresses);
                         callbackContext.sendPluginResult(result);
 
                     } catch (JSONException e) {
-                        Log.e(TAG, e.getMessage(), e);
+                        PluginLog.e(e.getMessage(), e);
                         callbackContext.error("Error: " + e.getMessage());
                     } catch (SocketException e) {
-                        Log.e(TAG, e.getMessage(), e);
+                        PluginLog.e(e.getMessage(), e);
                         callbackContext.error("Error: " + e.getMessage());
                     }
                 }
@@ -94,7 +133,9 @@ public class WebSocketServerPlugin extends CordovaPlugin {
 
         } else if (ACTION_START.equals(action)) {
 
-            if (wsserver != null) {
+            final String name = serverName(args, 12);
+
+            if (getServer(name) != null) {
                 callbackContext.error("Server already running.");
                 return false;
             }
@@ -103,80 +144,233 @@ public class WebSocketServerPlugin extends CordovaPlugin {
 
             List<String> _origins = null;
             List<String> _protocols = null;
+            List<String> _httpFields = null;
             Boolean _tcpNoDelay = null;
 
             try {
                 _origins = jsonArrayToArrayList(args.optJSONArray(1));
             } catch (JSONException e) {
-                Log.e(TAG, e.getMessage(), e);
+                PluginLog.e(e.getMessage(), e);
                 callbackContext.error("Origins option error");
                 return false;
             }
             try {
                 _protocols = jsonArrayToArrayList(args.optJSONArray(2));
             } catch (JSONException e) {
-                Log.e(TAG, e.getMessage(), e);
+                PluginLog.e(e.getMessage(), e);
                 callbackContext.error("Protocols option error");
                 return false;
             }
+            try {
+                _httpFields = jsonArrayToArrayList(args.optJSONArray(17));
+                if (_httpFields == null && args.optJSONArray(17) != null) {
+                    // [] for no header at all
+                    _httpFields = Collections.<String> emptyList();
+                }
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+                callbackContext.error("HttpFields option error");
+                return false;
+            }
             if (!args.isNull(3)) {
                 _tcpNoDelay = Boolean.valueOf(args.optBoolean(3));
             }
 
             final List<String> origins = _origins;
             final List<String> protocols = _protocols;
+            final List<String> httpFields = _httpFields;
             final Boolean tcpNoDelay = _tcpNoDelay;
+            final JSONObject batching = args.optJSONObject(4);
+            final String binaryTransport = args.optString(5, "arraybuffer");
+            final JSONObject backpressure = args.optJSONObject(6);
+            final JSONObject compression = args.optJSONObject(7);
+            final int decoders = args.optInt(8, WebSocketServerImpl.DEFAULT_DECODERS);
+            final int receiveBufferSize = args.optInt(9);
+            final int sendBufferSize = args.optInt(10);
+            final Boolean reuseAddr = args.isNull(11) ? null : Boolean.valueOf(args.optBoolean(11));
+            // true, or the limits of the subscriptions
+            final JSONObject subscriptionLimits = args.optJSONObject(13);
+            final boolean clientSubscriptions = subscriptionLimits != null || args.optBoolean(13);
+            final JSONObject heartbeat = args.optJSONObject(14);
+            final JSONObject admission = args.optJSONObject(15);
+            final JSONObject auth = args.optJSONObject(16);
+            final String connectionIds = args.optString(18, "uuid");
+            final JSONObject pauseBuffering = args.optJSONObject(19);
+            final JSONArray rules = args.optJSONArray(20);
+            final JSONObject streaming = args.optJSONObject(21);
+            final JSONObject sessions = args.optJSONObject(22);
+            final JSONObject tls = args.optJSONObject(23);
 
             cordova.getThreadPool().execute(new Runnable() {
                 @Override
                 public void run() {
                     WebSocketServerImpl newServer = null;
-                    try {
-                        if (protocols != null) {
-                            ArrayList<Draft_6455> drafts = new ArrayList<Draft_6455>();
-                            for (String protocol : protocols) {
-                                drafts.add(new Draft_6455(Collections.<IExtension> emptyList(), Collections.<IProtocol> singletonList(new Protocol(protocol))));
-                            }
-                            newServer = new WebSocketServerImpl(port, (List) drafts);
-                        } else {
-                            newServer = new WebSocketServerImpl(port);
+
+                    List<IExtension> extensions = Collections.<IExtension> emptyList();
+                    DeflateExtension.Stats compressionStats = null;
+                    if (compression != null) {
+                        compressionStats = new DeflateExtension.Stats();
+                        extensions = Collections.<IExtension> singletonList(new DeflateExtension(
+                                compression.optInt("level", Deflater.DEFAULT_COMPRESSION),
+                                compression.optInt("threshold", 1024),
+                                compression.optBoolean("serverNoContextTakeover", true),
+                                compression.optBoolean("clientNoContextTakeover", false),
+                                compressionStats));
+                    }
+
+                    List<Draft> drafts = null;
+                    if (protocols != null) {
+                        drafts = new ArrayList<Draft>();
+                        for (String protocol : protocols) {
+                            drafts.add(newDraft(extensions, Collections.<IProtocol> singletonList(new Protocol(protocol)), streaming));
                         }
+                    } else if (compression != null || streaming != null) {
+                        drafts = Collections.<Draft> singletonList(newDraft(extensions,
+                                Collections.<IProtocol> singletonList(new Protocol("")), streaming));
+                    }
+
+                    if (decoders < 1) {
+                        callbackContext.error("Decoders option error");
+                        return;
+                    }
+
+                    try {
+                        newServer = new WebSocketServerImpl(port, decoders, drafts);
                         newServer.setCallbackContext(callbackContext);
+                        newServer.setCompressionStats(compressionStats);
                     } catch (IllegalArgumentException e) {
-                        Log.e(TAG, e.getMessage(), e);
+                        PluginLog.e(e.getMessage(), e);
                         callbackContext.error("Port number error");
                         return;
                     }
 
+                    if (tls != null) {
+                        try {
+                            String keystore = tls.optString("keystore");
+                            newServer.setTls(new TlsSettings(
+                                    keystore.startsWith("file:") ? new File(new URI(keystore)) : new File(keystore),
+                                    tls.isNull("password") ? null : tls.optString("password"),
+                                    jsonArrayToArrayList(tls.optJSONArray("protocols")),
+                                    jsonArrayToArrayList(tls.optJSONArray("cipherSuites")),
+                                    tls.optInt("sessionCacheSize"), tls.optInt("sessionTimeout")));
+                        } catch (Exception e) {
+                            PluginLog.e(e.getMessage(), e);
+                            callbackContext.error("TLS option error");
+                            return;
+                        }
+                    }
+
                     if (origins != null) {
                         newServer.setOrigins(origins);
                     }
 
+                    if (admission != null) {
+                        newServer.setAdmissionControl(new AdmissionControl(admission.optInt("maxConnections"),
+                                admission.optInt("maxConnectionsPerAddress"), admission.optDouble("handshakeRate", 0),
+                                admission.optInt("handshakeBurst")));
+                    }
+
+                    newServer.setCompactIds("compact".equals(connectionIds));
+
+                    if (sessions != null) {
+                        newServer.setSessions(new SessionStore(sessions.optInt("maxSessions"),
+                                sessions.optInt("maxMessages"), sessions.optInt("maxBytes"), sessions.optInt("ttl"),
+                                sessions.isNull("queryParam") ? null : sessions.optString("queryParam"),
+                                sessions.isNull("seqParam") ? null : sessions.optString("seqParam")));
+                    }
+
+                    if (rules != null) {
+                        try {
+                            newServer.setRules(MessageRules.parse(rules));
+                        } catch (Exception e) {
+                            PluginLog.e(e.getMessage(), e);
+                            callbackContext.error("Rules option error");
+                            return;
+                        }
+                    }
+
+                    if (httpFields != null) {
+                        newServer.setHttpFields(httpFields);
+                    }
+
+                    if (auth != null) {
+                        try {
+                            newServer.setTokenVerifier(new TokenVerifier(
+                                    auth.isNull("secret") ? null : auth.optString("secret"),
+                                    auth.isNull("queryParam") ? TokenVerifier.DEFAULT_QUERY_PARAM : auth.optString("queryParam"),
+                                    auth.isNull("header") ? TokenVerifier.DEFAULT_HEADER : auth.optString("header")));
+                        } catch (RuntimeException e) {
+                            PluginLog.e(e.getMessage(), e);
+                            callbackContext.error("Auth option error");
+                            return;
+                        }
+                    }
+
                     if (tcpNoDelay != null) {
                         newServer.setTcpNoDelay(tcpNoDelay);
                     }
 
+                    if (reuseAddr != null) {
+                        newServer.setReuseAddr(reuseAddr);
+                    }
+
+                    newServer.setSocketBufferSizes(receiveBufferSize, sendBufferSize);
+
+                    if (subscriptionLimits != null) {
+                        newServer.setClientSubscriptions(true, subscriptionLimits.optInt("maxTopicsPerConnection"),
+                                subscriptionLimits.optInt("maxTopics"));
+                    } else {
+                        newServer.setClientSubscriptions(clientSubscriptions, 0, 0);
+                    }
+
+                    if (heartbeat != null && heartbeat.optInt("interval") > 0) {
+                        newServer.setHeartbeat(heartbeat.optInt("interval"), heartbeat.optInt("timeout"));
+                    }
+
+                    newServer.setArrayBufferTransport(!"base64".equals(binaryTransport));
+
+                    if (pauseBuffering != null) {
+                        newServer.setPauseBuffering(pauseBuffering.optInt("maxEvents"),
+                                pauseBuffering.optString("policy"), pauseBuffering.optInt("batchSize"));
+                    }
+
+                    if (batching != null) {
+                        newServer.setBatching(batching.optInt("maxEvents"), batching.optInt("interval"));
+                    }
+
+                    if (backpressure != null) {
+                        int highWaterMark = backpressure.optInt("highWaterMark", 1000);
+                        newServer.setBackpressure(highWaterMark,
+                                backpressure.optInt("lowWaterMark", highWaterMark / 4),
+                                backpressure.optString("policy"),
+                                backpressure.optLong("blockTimeout", 1000));
+                    }
+
+                    if (servers.putIfAbsent(name, newServer) != null) {
+                        callbackContext.error("Server already running.");
+                        return;
+                    }
+
                     try {
                         newServer.start();
                     } catch (IllegalStateException e) {
-                        Log.e(TAG, e.getMessage(), e);
+                        PluginLog.e(e.getMessage(), e);
+                        servers.remove(name, newServer);
                         callbackContext.error("Can only be started once.");
                         return;
                     }
-
-                    wsserver = newServer;
                 }
             });
 
         } else if (ACTION_STOP.equals(action)) {
 
-            if (wsserver == null) {
+            String name = serverName(args, 0);
+            final WebSocketServerImpl oldServer = getServer(name);
+            if (oldServer == null) {
                 callbackContext.error("Server is not running.");
                 return false;
             }
-
-            final WebSocketServerImpl oldServer = wsserver;
-            wsserver = null;
+            servers.remove(name, oldServer);
 
             this.cordova.getThreadPool().execute(new Runnable() {
                 @Override
@@ -184,7 +378,7 @@ public class WebSocketServerPlugin extends CordovaPlugin {
                     try {
                         oldServer.stop(2000);
                     } catch (InterruptedException e) {
-                        Log.e(TAG, e.getMessage(), e);
+                        PluginLog.e(e.getMessage(), e);
                         callbackContext.error("Error: " + e.getMessage());
                         return;
                     }
@@ -194,11 +388,11 @@ public class WebSocketServerPlugin extends CordovaPlugin {
                         status.put("addr", oldServer.getHostAddress());
                         status.put("port", oldServer.getPort());
 
-                        Log.d(TAG, "stop result: " + status.toString());
+                        PluginLog.d("stop result: ", status);
                         callbackContext.success(status);
 
                     } catch (JSONException e) {
-                        Log.e(TAG, e.getMessage(), e);
+                        PluginLog.e(e.getMessage(), e);
                     }
                 }
             });
@@ -208,19 +402,100 @@ public class WebSocketServerPlugin extends CordovaPlugin {
             final String uuid = args.optString(0);
             final String msg = args.optString(1);
             if (uuid != null && msg != null) {
-                this.cordova.getThreadPool().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (wsserver != null) {
-                            wsserver.send(uuid, msg, ACTION_SEND_BINARY.equals(action));
-                        }
-                    }
-                });
+                WebSocketServerImpl wsserver = getServer(serverName(args, 2));
+                if (wsserver != null) {
+                    // queued to the outbound pipeline of the server
+                    wsserver.send(uuid, msg, ACTION_SEND_BINARY.equals(action));
+                }
             } else {
                 callbackContext.error("UUID or msg not specified.");
                 return false;
             }
 
+        } else if (ACTION_SEND_FILE.equals(action)) {
+
+            String uuid = args.optString(0);
+            String path = args.isNull(1) ? null : args.optString(1);
+            JSONObject options = args.optJSONObject(2);
+            if (path == null) {
+                callbackContext.error("Path not specified.");
+                return false;
+            }
+
+            File file;
+            try {
+                // a path or a file:// URL
+                file = path.startsWith("file:") ? new File(new URI(path)) : new File(path);
+            } catch (URISyntaxException e) {
+                callbackContext.error("Path error");
+                return false;
+            } catch (IllegalArgumentException e) {
+                callbackContext.error("Path error");
+                return false;
+            }
+
+            WebSocketServerImpl wsserver = getServer(serverName(args, 3));
+            if (wsserver == null) {
+                callbackContext.error("Server is not running.");
+                return false;
+            }
+            // progress and completion are reported to this callback by the outbound pipeline
+            if (!wsserver.sendFile(uuid, file, options == null ? 0 : options.optInt("chunkSize"),
+                    options == null ? 0 : options.optInt("progressInterval"), callbackContext)) {
+                callbackContext.error("Unknown connection.");
+                return false;
+            }
+
+        } else if (ACTION_SEND_CONFLATED.equals(action) || ACTION_SEND_CONFLATED_BINARY.equals(action)) {
+
+            String uuid = args.optString(0);
+            String key = args.isNull(1) ? null : args.optString(1);
+            String msg = args.optString(2);
+            if (uuid != null && key != null && msg != null) {
+                WebSocketServerImpl wsserver = getServer(serverName(args, 3));
+                if (wsserver != null) {
+                    // queued to the outbound pipeline of the server
+                    wsserver.sendConflated(uuid, key, msg, ACTION_SEND_CONFLATED_BINARY.equals(action));
+                }
+            } else {
+                callbackContext.error("UUID, key or msg not specified.");
+                return false;
+            }
+
+        } else if (ACTION_BROADCAST.equals(action) || ACTION_BROADCAST_BINARY.equals(action)) {
+
+            String msg = args.optString(0);
+            if (msg != null) {
+                WebSocketServerImpl wsserver = getServer(serverName(args, 1));
+                if (wsserver != null) {
+                    // queued to the outbound pipeline of the server
+                    wsserver.broadcast(msg, ACTION_BROADCAST_BINARY.equals(action));
+                }
+            } else {
+                callbackContext.error("msg not specified.");
+                return false;
+            }
+
+        } else if (ACTION_SEND_TO_MANY.equals(action) || ACTION_SEND_TO_MANY_BINARY.equals(action)) {
+
+            List<String> uuids = null;
+            try {
+                uuids = jsonArrayToArrayList(args.optJSONArray(0));
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+            }
+            String msg = args.optString(1);
+            if (uuids != null && msg != null) {
+                WebSocketServerImpl wsserver = getServer(serverName(args, 2));
+                if (wsserver != null) {
+                    // queued to the outbound pipeline of the server
+                    wsserver.sendToMany(uuids, msg, ACTION_SEND_TO_MANY_BINARY.equals(action));
+                }
+            } else {
+                callbackContext.error("UUIDs or msg not specified.");
+                return false;
+            }
+
         } else if (ACTION_CLOSE.equals(action)) {
 
             final String uuid = args.optString(0);
@@ -228,21 +503,109 @@ public class WebSocketServerPlugin extends CordovaPlugin {
             final String reason = args.optString(2);
 
             if (uuid != null) {
-                this.cordova.getThreadPool().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (wsserver != null) {
-                            wsserver.close(uuid, code, reason);
-                        }
-                    }
-                });
+                WebSocketServerImpl wsserver = getServer(serverName(args, 3));
+                if (wsserver != null) {
+                    // queued to the outbound pipeline of the server
+                    wsserver.close(uuid, code, reason);
+                }
             } else {
                 callbackContext.error("UUID not specified.");
                 return false;
             }
 
+        } else if (ACTION_SUBSCRIBE.equals(action) || ACTION_UNSUBSCRIBE.equals(action)) {
+
+            String uuid = args.optString(0);
+            String topic = args.isNull(1) ? null : args.optString(1);
+            if (uuid != null && topic != null) {
+                WebSocketServerImpl wsserver = getServer(serverName(args, 2));
+                if (wsserver != null) {
+                    if (ACTION_SUBSCRIBE.equals(action)) {
+                        wsserver.subscribe(uuid, topic);
+                    } else {
+                        wsserver.unsubscribe(uuid, topic);
+                    }
+                }
+            } else {
+                callbackContext.error("UUID or topic not specified.");
+                return false;
+            }
+
+        } else if (ACTION_PUBLISH.equals(action) || ACTION_PUBLISH_BINARY.equals(action)) {
+
+            String topic = args.isNull(0) ? null : args.optString(0);
+            String msg = args.optString(1);
+            if (topic != null && msg != null) {
+                WebSocketServerImpl wsserver = getServer(serverName(args, 2));
+                if (wsserver != null) {
+                    // queued to the outbound pipeline of the server
+                    wsserver.publish(topic, msg, ACTION_PUBLISH_BINARY.equals(action));
+                }
+            } else {
+                callbackContext.error("topic or msg not specified.");
+                return false;
+            }
+
+        } else if (ACTION_GET_STATS.equals(action)) {
+
+            WebSocketServerImpl wsserver = getServer(serverName(args, 0));
+            if (wsserver == null) {
+                callbackContext.error("Server is not running.");
+                return false;
+            }
+
+            try {
+                callbackContext.success(wsserver.getStats());
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+                callbackContext.error("Error: " + e.getMessage());
+            }
+
+        } else if (ACTION_GET_CONNECTION_INFO.equals(action)) {
+
+            WebSocketServerImpl wsserver = getServer(serverName(args, 1));
+            if (wsserver == null) {
+                callbackContext.error("Server is not running.");
+                return false;
+            }
+
+            try {
+                JSONObject info = wsserver.getConnectionInfo(args.optString(0));
+                if (info != null) {
+                    callbackContext.success(info);
+                } else {
+                    callbackContext.error("Unknown connection.");
+                }
+            } catch (JSONException e) {
+                PluginLog.e(e.getMessage(), e);
+                callbackContext.error("Error: " + e.getMessage());
+            }
+
+        } else if (ACTION_SET_RULES.equals(action)) {
+
+            WebSocketServerImpl wsserver = getServer(serverName(args, 1));
+            if (wsserver == null) {
+                callbackContext.error("Server is not running.");
+                return false;
+            }
+
+            JSONArray rules = args.optJSONArray(0);
+            try {
+                wsserver.setRules(rules != null && rules.length() > 0 ? MessageRules.parse(rules) : null);
+                callbackContext.success();
+            } catch (Exception e) {
+                PluginLog.e(e.getMessage(), e);
+                callbackContext.error("Rules error: " + e.getMessage());
+            }
+
+        } else if (ACTION_SET_LOG_LEVEL.equals(action)) {
+
+            // shared by all the servers
+            PluginLog.setLevel(args.optString(0, "warn"));
+            callbackContext.success();
+
         } else {
-            Log.w(TAG, "Invalid action: " + action);
+            PluginLog.w("Invalid action: ", action);
             callbackContext.error("Invalid action: " + action);
             return false;
         }
@@ -250,6 +613,29 @@ public class WebSocketServerPlugin extends CordovaPlugin {
         return true;
     }
 
+    // large messages are delivered in chunks with the streaming option
+    private static Draft newDraft(List<IExtension> extensions, List<IProtocol> protocols, JSONObject streaming) {
+        if (streaming != null) {
+            return new StreamingDraft(extensions, protocols, streaming.optInt("threshold"),
+                    streaming.optInt("chunkSize"));
+        }
+        return new Draft_6455(extensions, protocols);
+    }
+
+    // a failed server is forgotten, so that it can be started again
+    private WebSocketServerImpl getServer(String name) {
+        WebSocketServerImpl wsserver = servers.get(name);
+        if (wsserver != null && wsserver.failed) {
+            servers.remove(name, wsserver);
+            return null;
+        }
+        return wsserver;
+    }
+
+    private static String serverName(JSONArray args, int index) {
+        return args.isNull(index) ? DEFAULT_SERVER : args.optString(index);
+    }
+
     public static ArrayList<String> jsonArrayToArrayList(JSONArray jsonArray) throws JSONException {
         ArrayList<String> list = null;
         if (jsonArray != null && jsonArray.length() > 0) {
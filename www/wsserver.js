@@ -5,7 +5,27 @@ var fail = function(o) {
     console.error("Error " + JSON.stringify(o));
 };
 
-var connections = [];
+var DEFAULT_SERVER = 'default';
+
+// started servers by name: {connections, arrayBufferTransport}
+var servers = {};
+
+var toBinaryArg = function(name, msg) {
+    var server = servers[name || DEFAULT_SERVER];
+    if (server && server.arrayBufferTransport) {
+        // the ArrayBuffer is handed to the bridge as is
+        return msg instanceof ArrayBuffer ? msg : new Uint8Array(msg).buffer;
+    }
+
+    // convert any iterable object to Base64 string
+    var binary_string = '';
+    var bytes = new Uint8Array(msg);
+    var len = bytes.byteLength;
+    for (var i = 0; i < len; i++) {
+        binary_string += String.fromCharCode(bytes[i]);
+    }
+    return window.btoa(binary_string);
+};
 
 var WebSocketServer = {
 
@@ -14,17 +34,36 @@ var WebSocketServer = {
     },
 
     start : function(port, options, success, failure) {
-        return exec(function(result) {
+        var name = options.name || DEFAULT_SERVER;
+        var server = {
+            connections : {},
+            arrayBufferTransport : options.binaryTransport !== 'base64' && require('cordova').platformId === 'android'
+        };
+        var connections = server.connections;
+
+        var messageData = function(result, parts) {
+            if (!result.is_binary) {
+                return result.msg;
+            }
+            if (result.msg === undefined) {
+                // ArrayBuffer delivered as a part of the multipart result
+                return parts[result.part];
+            }
+            // convert Base64 string to ArrayBuffer
+            var binary_string = window.atob(result.msg);
+            var len = binary_string.length;
+            var bytes = new Uint8Array(len);
+            for (var i = 0; i < len; i++) {
+                bytes[i] = binary_string.charCodeAt(i);
+            }
+            return bytes.buffer;
+        };
+
+        var handleEvent = function(result, parts) {
             switch (result.action) {
-            case 'onFailure':
-                connections = [];
-                var callback = options[result.action];
-                if (callback) {
-                    callback(result.addr, result.port, result.reason);
-                }
-                break;
             case 'onOpen':
                 var conn = result.conn;
+                conn.server = name;
                 conn.state = 'open';
                 connections[conn.uuid] = conn;
                 var callback = options[result.action];
@@ -37,19 +76,26 @@ var WebSocketServer = {
                 if (conn) {
                     var callback = options[result.action];
                     if (callback) {
-                        if(result.is_binary) {
-                            // convert Base64 string to ArrayBuffer
-                            var binary_string = window.atob(result.msg);
-                            var len = binary_string.length;
-                            var bytes = new Uint8Array(len);
-                            for (var i = 0; i < len; i++) {
-                                bytes[i] = binary_string.charCodeAt(i);
-                            }
-                            callback(conn, bytes.buffer);
-                        }
-                        else {
-                            callback(conn, result.msg);
-                        }
+                        callback(conn, messageData(result, parts));
+                    }
+                }
+                break;
+            case 'onMessageChunk':
+                var conn = connections[result.uuid];
+                if (conn) {
+                    var callback = options[result.action];
+                    if (callback) {
+                        callback(conn, messageData(result, parts), result.seq, result.last);
+                    }
+                }
+                break;
+            case 'onBackpressure':
+            case 'onDrain':
+                var conn = connections[result.uuid];
+                if (conn) {
+                    var callback = options[result.action];
+                    if (callback) {
+                        callback(conn, result.bufferedFrames);
                     }
                 }
                 break;
@@ -64,47 +110,152 @@ var WebSocketServer = {
                     }
                 }
                 break;
+            }
+        };
+
+        return exec(function(result) {
+            switch (result.action) {
+            case 'onFailure':
+                if (servers[name] === server) {
+                    delete servers[name];
+                }
+                var callback = options[result.action];
+                if (callback) {
+                    callback(result.addr, result.port, result.reason);
+                }
+                break;
+            case 'onOpen':
+            case 'onMessage':
+            case 'onMessageChunk':
+            case 'onBackpressure':
+            case 'onDrain':
+            case 'onClose':
+                handleEvent(result, arguments);
+                break;
+            case 'batch':
+                // several events gathered natively in a single bridge call
+                var events = result.events;
+                for (var i = 0, len = events.length; i < len; i++) {
+                    handleEvent(events[i], arguments);
+                }
+                break;
             default:
-                connections = [];
+                servers[name] = server;
                 if (success) {
                     success(result.addr, result.port);
                 }
             }
-        }, failure, "WebSocketServer", "start", [ port, options.origins, options.protocols, options.tcpNoDelay ]);
+        }, failure, "WebSocketServer", "start", [ port, options.origins, options.protocols, options.tcpNoDelay,
+                options.batching, options.binaryTransport, options.backpressure,
+                options.compression, options.decoders, options.receiveBufferSize,
+                options.sendBufferSize, options.reuseAddr, name, options.clientSubscriptions,
+                options.heartbeat, options.admission, options.auth, options.httpFields,
+                options.connectionIds, options.pauseBuffering, options.rules,
+                options.streaming, options.sessions, options.tls ]);
     },
 
-    stop : function(success, failure) {
+    stop : function(success, failure, name) {
+        name = name || DEFAULT_SERVER;
         return exec(function(result) {
-            connections = [];
+            delete servers[name];
             if (success) {
                 success(result.addr, result.port);
             }
-        }, failure, "WebSocketServer", "stop", []);
+        }, failure, "WebSocketServer", "stop", [ name ]);
     },
 
     send : function(conn, msg) {
         if (typeof msg == "string") {
             
             // send text frame (websocket opcode 1)
-            return exec(null, fail, "WebSocketServer", "send", [ conn.uuid, msg ]);
+            return exec(null, fail, "WebSocketServer", "send", [ conn.uuid, msg, conn.server ]);
 
         } else {
-            // convert any iterable object to Base64 string
-            var binary_string = '';
-            var bytes = new Uint8Array(msg);
-            var len = bytes.byteLength;
-            for (var i = 0; i < len; i++) {
-                binary_string += String.fromCharCode(bytes[i]);
+            // send binary frame (websocket opcode 2)
+            return exec(null, fail, "WebSocketServer", "send_binary", [ conn.uuid, toBinaryArg(conn.server, msg), conn.server ]);
+        }
+    },
+
+    sendFile : function(conn, path, options, success, failure, progress) {
+        return exec(function(result) {
+            if (result.done) {
+                if (success) {
+                    success(result);
+                }
+            } else if (progress) {
+                progress(result);
             }
-            var msg_base64 = window.btoa(binary_string);
+        }, failure || fail, "WebSocketServer", "sendFile", [ conn.uuid, path, options || null, conn.server ]);
+    },
 
-            // send binary frame (websocket opcode 2)
-            return exec(null, fail, "WebSocketServer", "send_binary", [ conn.uuid, msg_base64 ]);
+    sendConflated : function(conn, key, msg) {
+        if (typeof msg == "string") {
+            return exec(null, fail, "WebSocketServer", "sendConflated", [ conn.uuid, key, msg, conn.server ]);
+        } else {
+            return exec(null, fail, "WebSocketServer", "sendConflated_binary", [ conn.uuid, key, toBinaryArg(conn.server, msg), conn.server ]);
+        }
+    },
+
+    broadcast : function(msg, name) {
+        name = name || DEFAULT_SERVER;
+        if (typeof msg == "string") {
+            return exec(null, fail, "WebSocketServer", "broadcast", [ msg, name ]);
+        } else {
+            return exec(null, fail, "WebSocketServer", "broadcast_binary", [ toBinaryArg(name, msg), name ]);
         }
     },
 
+    sendToMany : function(conns, msg) {
+        // one call per server
+        var uuidsByServer = {};
+        for (var i = 0, len = conns.length; i < len; i++) {
+            var name = conns[i].server || DEFAULT_SERVER;
+            (uuidsByServer[name] = uuidsByServer[name] || []).push(conns[i].uuid);
+        }
+        for (var name in uuidsByServer) {
+            if (typeof msg == "string") {
+                exec(null, fail, "WebSocketServer", "sendToMany", [ uuidsByServer[name], msg, name ]);
+            } else {
+                exec(null, fail, "WebSocketServer", "sendToMany_binary", [ uuidsByServer[name], toBinaryArg(name, msg), name ]);
+            }
+        }
+    },
+
+    subscribe : function(conn, topic) {
+        return exec(null, fail, "WebSocketServer", "subscribe", [ conn.uuid, topic, conn.server ]);
+    },
+
+    unsubscribe : function(conn, topic) {
+        return exec(null, fail, "WebSocketServer", "unsubscribe", [ conn.uuid, topic, conn.server ]);
+    },
+
+    publish : function(topic, msg, name) {
+        name = name || DEFAULT_SERVER;
+        if (typeof msg == "string") {
+            return exec(null, fail, "WebSocketServer", "publish", [ topic, msg, name ]);
+        } else {
+            return exec(null, fail, "WebSocketServer", "publish_binary", [ topic, toBinaryArg(name, msg), name ]);
+        }
+    },
+
+    getStats : function(success, failure, name) {
+        return exec(success, failure, "WebSocketServer", "getStats", [ name || DEFAULT_SERVER ]);
+    },
+
+    setRules : function(rules, success, failure, name) {
+        return exec(success, failure, "WebSocketServer", "setRules", [ rules, name || DEFAULT_SERVER ]);
+    },
+
+    setLogLevel : function(level, success, failure) {
+        return exec(success, failure, "WebSocketServer", "setLogLevel", [ level ]);
+    },
+
+    getConnectionInfo : function(conn, success, failure) {
+        return exec(success, failure, "WebSocketServer", "getConnectionInfo", [ conn.uuid, conn.server ]);
+    },
+
     close : function(conn, code, reason) {
-        return exec(null, fail, "WebSocketServer", "close", [ conn.uuid, code, reason ]);
+        return exec(null, fail, "WebSocketServer", "close", [ conn.uuid, code, reason, conn.server ]);
     }
 
 };